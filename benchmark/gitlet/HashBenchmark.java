@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* JMH benchmarks of the SHA-1 hashing in Utils, each against the way it was
+   done before: a MessageDigest looked up for every hash and a Formatter to
+   write it in hexadecimal, and files read whole and hashed one at a time.
+   It lives in package gitlet to reach Utils. To run it, with the JMH jars
+   (jmh-core, jmh-generator-annprocess and their dependencies) in $JMH:
+
+   javac -cp "$JMH/*" -d bench gitlet/*.java benchmark/gitlet/HashBenchmark.java
+   java -cp "bench:$JMH/*" org.openjdk.jmh.Main HashBenchmark
+
+   The file benchmarks gain with the number of processors. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    // number of files hashed at once, and the size of each
+    @Param({"2000"})
+    public int files;
+    @Param({"4096"})
+    public int fileSize;
+
+    // fields of a commit, as hashed for its id
+    private final String message = "Merged master with feature.";
+    private final String date = "2018-08-10 12:34:56";
+    private final String tree = "3f786850e387550fdab836ed7e6dc881de23001b";
+    private final String parent = "89e6c98d92887913cadf06b2adb97f26cde4849b";
+
+    // directory of the files, and the files
+    private File dir;
+    private File[] paths;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        dir = Files.createTempDirectory("gitlet-bench").toFile();
+        paths = new File[files];
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < files; i += 1) {
+            content[i % fileSize] += 1;
+            paths[i] = new File(dir, "f" + i);
+            Files.write(paths[i].toPath(), content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        for (File f : paths) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    // the hash as Utils.sha1 computed it before
+    private static String legacySha1(Object... vals) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (Object val : vals) {
+                if (val instanceof byte[]) {
+                    md.update((byte[]) val);
+                } else {
+                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    @Benchmark
+    public String commitIdLegacy() {
+        return legacySha1(message, date, tree, parent);
+    }
+
+    @Benchmark
+    public String commitId() {
+        return Utils.sha1(message, date, tree, parent);
+    }
+
+    @Benchmark
+    public String[] fileHashesLegacy() {
+        String[] result = new String[paths.length];
+        for (int i = 0; i < paths.length; i += 1) {
+            result[i] = legacySha1(Utils.readContents(paths[i]));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String[] fileHashes() {
+        return Utils.sha1(paths);
+    }
+}
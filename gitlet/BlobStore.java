@@ -0,0 +1,474 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/* The file contents of a repository, keyed by their SHA-1. New blobs are
+   written loose, one file each under .gitlet/blobs; repack() moves them
+   into a compressed, delta-encoded pack under .gitlet/packs. Reads look at
+   the loose blobs first and then at the packs.
+
+   Working files are copied in and out of the loose blobs as streams, so a
+   file of any size is never held in memory whole. Files too large to be
+   packed are stored as lists of chunks instead (see ChunkStore), which lets
+   their versions share every chunk an edit did not touch. */
+public class BlobStore {
+
+    // largest blob that is packed
+    private static final int MAX_DELTA_SIZE = 16 << 20;
+    // number of preceding blobs tried as delta bases
+    private static final int WINDOW = 10;
+    // longest chain of deltas to reach a blob
+    private static final int MAX_DEPTH = 50;
+    // largest blob logged in the journal; larger ones are forced on their own
+    private static final int MAX_JOURNALED = 64 << 10;
+
+    // directory of the loose blobs
+    private final File looseDir;
+    // directory of the packs
+    private final File packDir;
+    // the packs, opened lazily
+    private List<PackFile> packs;
+    // the blobs too large to pack, stored as chunks
+    private final ChunkStore chunks;
+    // journal that new blobs are written through
+    private final Journal journal;
+
+    // Constructor
+    public BlobStore(File gitletDir, Journal journal) {
+        looseDir = Utils.join(gitletDir, "blobs");
+        packDir = Utils.join(gitletDir, "packs");
+        chunks = new ChunkStore(gitletDir, journal);
+        this.journal = journal;
+    }
+
+    // returns the file of the loose blob with the given id
+    File looseFile(String id) {
+        return Utils.join(looseDir, id);
+    }
+
+    // returns the packs of this store; checkout reads blobs from several threads
+    synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".pack") && PackFile.indexOf(Utils.join(packDir, name)).isFile()) {
+                        packs.add(new PackFile(Utils.join(packDir, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    // closes the packs, so that they are listed again when next needed
+    public synchronized void refresh() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    // returns true if the blob with the given id is stored
+    public boolean contains(String id) {
+        if (looseFile(id).isFile() || chunks.contains(id)) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns the contents of the blob with the given id
+    public byte[] read(String id) {
+        byte[] content = readStored(id);
+        if (content == null) {
+            // another process may have packed the blob since the packs were listed
+            refresh();
+            content = readStored(id);
+        }
+        if (content == null) {
+            throw new IllegalArgumentException("missing blob " + id);
+        }
+        return content;
+    }
+
+    // returns the contents of the blob with the given id, or null
+    private byte[] readStored(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        if (chunks.contains(id)) {
+            try (InputStream in = chunks.open(id)) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        for (PackFile pack : packs()) {
+            byte[] content = pack.read(id);
+            if (content != null) {
+                return content;
+            }
+        }
+        return null;
+    }
+
+    // returns the size of the blob with the given id
+    public long size(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return loose.length();
+        } else if (chunks.contains(id)) {
+            return chunks.size(id);
+        }
+        return read(id).length;
+    }
+
+    // returns a stream of the contents of the blob with the given id
+    public InputStream open(String id) {
+        if (chunks.contains(id)) {
+            return chunks.open(id);
+        }
+        try {
+            return new FileInputStream(looseFile(id));
+        } catch (FileNotFoundException e) {
+            return new ByteArrayInputStream(read(id));
+        }
+    }
+
+    // Writes the contents of the blob with the given id to TARGET. A loose
+    // blob is copied by the file system, without passing through the heap.
+    public void copyTo(String id, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        } else if (chunks.contains(id)) {
+            chunks.copyTo(id, target);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(looseFile(id).toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += in.transferTo(done, size - done, out);
+            }
+        } catch (NoSuchFileException e) {
+            // not loose, or packed by another process since
+            Utils.writeContents(target, read(id));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // Stores the contents of the working file SOURCE as a blob, unless it
+    // is already stored, and returns its id. Small files are read whole and
+    // logged in the journal. Larger ones are hashed as they are copied into
+    // a temporary file, which then takes the id as its name and is forced
+    // when the journal commits. Files too large to pack are stored as chunks.
+    public String writeFile(File source) {
+        if (source.length() > MAX_DELTA_SIZE) {
+            return chunks.write(source);
+        } else if (source.length() <= MAX_JOURNALED) {
+            byte[] content = Utils.readContents(source);
+            String id = Utils.sha1(content);
+            write(id, content);
+            return id;
+        }
+        looseDir.mkdirs();
+        File temp = null;
+        try {
+            temp = File.createTempFile(Journal.TEMP_PREFIX, null, looseDir);
+            MessageDigest md = Utils.sha1Digest();
+            try (InputStream in = new FileInputStream(source);
+                 OutputStream out = new DigestOutputStream(new FileOutputStream(temp), md)) {
+                byte[] block = new byte[Utils.BLOCK_SIZE];
+                for (int n = in.read(block); n >= 0; n = in.read(block)) {
+                    out.write(block, 0, n);
+                }
+            }
+            String id = Utils.hex(md.digest());
+            if (!contains(id)) {
+                Files.move(temp.toPath(), looseFile(id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journal.sync(looseFile(id));
+            }
+            return id;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    // stores CONTENT as the blob with the given id, unless it is already stored
+    public void write(String id, byte[] content) {
+        if (contains(id)) {
+            return;
+        }
+        looseDir.mkdirs();
+        journal.write(looseFile(id), content);
+    }
+
+    // Stores the next LENGTH bytes of IN as a blob, unless it is already
+    // stored, and returns its id. Blobs small enough to pack are read whole;
+    // larger ones are copied into a temporary file and stored from there.
+    public String write(InputStream in, long length) {
+        try {
+            if (length <= MAX_DELTA_SIZE) {
+                byte[] content = in.readNBytes((int) length);
+                if (content.length != length) {
+                    throw new IllegalArgumentException("unexpected end of blob");
+                }
+                String id = Utils.sha1(content);
+                write(id, content);
+                return id;
+            }
+            looseDir.mkdirs();
+            File temp = File.createTempFile(Journal.TEMP_PREFIX, null, looseDir);
+            try {
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    byte[] block = new byte[Utils.BLOCK_SIZE];
+                    for (long left = length; left > 0; ) {
+                        int n = in.read(block, 0, (int) Math.min(block.length, left));
+                        if (n < 0) {
+                            throw new IllegalArgumentException("unexpected end of blob");
+                        }
+                        out.write(block, 0, n);
+                        left -= n;
+                    }
+                }
+                return writeFile(temp);
+            } finally {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // Moves every loose blob into a new pack and returns how many were moved.
+    // PATHOF maps blob ids to a path they were committed under; blobs of the
+    // same path are placed together, largest first, so that each is encoded as
+    // a delta against a similar version. The journal is emptied before the
+    // loose blobs are deleted, or recovery would write them back.
+    public int repack(Map<String, String> pathOf) {
+        List<String> names = Utils.plainFilenamesIn(looseDir);
+        if (names == null) {
+            return 0;
+        }
+        // blobs being written, and those too large to read whole, stay loose
+        List<String> loose = new ArrayList<>();
+        Map<String, Long> sizes = new HashMap<>();
+        for (String id : names) {
+            long size = looseFile(id).length();
+            if (!id.startsWith(Journal.TEMP_PREFIX) && size <= MAX_DELTA_SIZE) {
+                loose.add(id);
+                sizes.put(id, size);
+            }
+        }
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        List<String> order = new ArrayList<>(loose);
+        order.sort(Comparator.comparing((String id) -> nameOf(pathOf.get(id)))
+                .thenComparing(id -> pathOf.getOrDefault(id, ""))
+                .thenComparing(id -> -sizes.get(id))
+                .thenComparing(id -> id));
+
+        // listed before the pack is written, so that it is added only once
+        List<PackFile> listed = packs();
+        PackWriter writer = new PackWriter(packDir);
+        ArrayDeque<String> window = new ArrayDeque<>();
+        Map<String, byte[]> windowContents = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        for (String id : order) {
+            byte[] content = Utils.readContents(looseFile(id));
+            String base = null;
+            byte[] bestDelta = null;
+            for (String candidate : window) {
+                byte[] candidateContent = windowContents.get(candidate);
+                if (depths.get(candidate) >= MAX_DEPTH
+                        || candidateContent.length > 2L * content.length + 64
+                        || content.length > 2L * candidateContent.length + 64) {
+                    continue;
+                }
+                byte[] delta = Delta.compute(candidateContent, content);
+                if (delta.length < content.length / 2
+                        && (bestDelta == null || delta.length < bestDelta.length)) {
+                    base = candidate;
+                    bestDelta = delta;
+                }
+            }
+            if (base == null) {
+                writer.addFull(id, content);
+                depths.put(id, 0);
+            } else {
+                writer.addDelta(id, base, bestDelta);
+                depths.put(id, depths.get(base) + 1);
+            }
+            window.addLast(id);
+            windowContents.put(id, content);
+            if (window.size() > WINDOW) {
+                windowContents.remove(window.removeFirst());
+            }
+        }
+        File pack = writer.finish();
+        listed.add(new PackFile(pack));
+        journal.commit();
+        journal.flush();
+        for (String id : loose) {
+            looseFile(id).delete();
+        }
+        return loose.size();
+    }
+
+    // Hashes every blob again and reports to PROBLEMS each one that does not
+    // hash to its id. Loose blobs are hashed in parallel, and each pack is
+    // split into as many parts as there are processors, each read through
+    // a handle of its own. Blobs stored as chunks are checked chunk by chunk
+    // (see ChunkStore.verify). Adds the bytes read to READ and returns the
+    // number of blobs.
+    public int verify(Consumer<String> problems, AtomicLong read) {
+        List<String> names = Utils.plainFilenamesIn(looseDir);
+        List<String> loose = new ArrayList<>();
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            if (!name.startsWith(Journal.TEMP_PREFIX)) {
+                loose.add(name);
+            }
+        }
+        loose.parallelStream().forEach(id -> {
+            File f = looseFile(id);
+            read.addAndGet(f.length());
+            try {
+                if (!Utils.sha1(f).equals(id)) {
+                    problems.accept("corrupt blob " + id);
+                }
+            } catch (IllegalArgumentException e) {
+                problems.accept("corrupt blob " + id);
+            }
+        });
+        int count = loose.size() + chunks.verify(problems, read);
+        int parts = Runtime.getRuntime().availableProcessors();
+        for (PackFile pack : packs()) {
+            int size = pack.size();
+            count += size;
+            IntStream.range(0, parts).parallel().forEach(part -> {
+                PackFile handle = new PackFile(pack.getFile());
+                try {
+                    for (int i = part * size / parts; i < (part + 1) * size / parts; i += 1) {
+                        String id = handle.idAt(i);
+                        try {
+                            byte[] content = handle.read(id);
+                            read.addAndGet(content.length);
+                            if (!Utils.sha1(content).equals(id)) {
+                                problems.accept("corrupt blob " + id);
+                            }
+                        } catch (RuntimeException e) {
+                            // a damaged record can hold any length or offset
+                            problems.accept("corrupt blob " + id);
+                        }
+                    }
+                } finally {
+                    handle.close();
+                }
+            });
+        }
+        return count;
+    }
+
+    // Deletes the blobs not in LIVE, and the files left by writes that never
+    // finished, of those last modified before CUTOFF, in milliseconds, and
+    // returns how many. Adds the bytes freed to FREED. A pack holding such
+    // blobs is deleted once the blobs of LIVE in it are written loose and
+    // made durable; repack() packs them again.
+    public int sweep(Set<String> live, long cutoff, AtomicLong freed) {
+        int deleted = 0;
+        List<String> names = Utils.plainFilenamesIn(looseDir);
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            File loose = looseFile(name);
+            long length = loose.length();
+            if ((name.startsWith(Journal.TEMP_PREFIX) || !live.contains(name))
+                    && loose.lastModified() < cutoff && loose.delete()) {
+                freed.addAndGet(length);
+                deleted += 1;
+            }
+        }
+        deleted += chunks.sweep(live, cutoff, freed);
+        List<File> dead = new ArrayList<>();
+        for (PackFile pack : packs()) {
+            int unreachable = 0;
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (!live.contains(pack.idAt(i))) {
+                    unreachable += 1;
+                }
+            }
+            if (unreachable == 0 || pack.getFile().lastModified() >= cutoff) {
+                continue;
+            }
+            looseDir.mkdirs();
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                if (live.contains(id) && !looseFile(id).isFile()) {
+                    byte[] content = pack.read(id);
+                    journal.write(looseFile(id), content);
+                    freed.addAndGet(-content.length);
+                }
+            }
+            deleted += unreachable;
+            dead.add(pack.getFile());
+        }
+        if (dead.isEmpty()) {
+            return deleted;
+        }
+        journal.commit();
+        refresh();
+        for (File pack : dead) {
+            freed.addAndGet(pack.length() + PackFile.indexOf(pack).length());
+            PackFile.indexOf(pack).delete();
+            pack.delete();
+        }
+        return deleted;
+    }
+
+    // returns the last component of PATH, or "" if PATH is null
+    private static String nameOf(String path) {
+        if (path == null) {
+            return "";
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/* The objects one repository sends another, in a single file streamed from
+   the stores of the sender into the stores of the receiver. Blobs come
+   first, then trees, then commits, parents before children, so that every
+   object the receiver stores has what it refers to stored already:
+
+   bundle := "GBDL" entry* END
+   entry  := BLOB   UTF(id) long(length) bytes
+           | TREE   UTF(id) int(length) serialized-tree
+           | COMMIT UTF(id) int(length) serialized-commit
+
+   Blobs are copied a block at a time, so no blob is held whole in memory
+   unless it is small enough to be stored loose. The receiver hashes every
+   object again and refuses the bundle if one does not match its id. */
+class Bundle {
+
+    // magic number of a bundle
+    static final int MAGIC = 0x4742444c;
+    // kinds of entries
+    static final int BLOB = 0;
+    static final int TREE = 1;
+    static final int COMMIT = 2;
+    static final int END = 3;
+
+    // Writes to TARGET a bundle of the blobs BLOBIDS, read from BLOBS, the
+    // trees TREES and the commits COMMITS, in that order.
+    static void write(File target, List<String> blobIDs, BlobStore blobs,
+                      List<TreeObject> trees, List<CommitObject> commits) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(target), Utils.BLOCK_SIZE))) {
+            out.writeInt(MAGIC);
+            for (String id : blobIDs) {
+                out.writeByte(BLOB);
+                out.writeUTF(id);
+                out.writeLong(blobs.size(id));
+                try (InputStream in = blobs.open(id)) {
+                    in.transferTo(out);
+                }
+            }
+            for (TreeObject tree : trees) {
+                writeObject(out, TREE, tree.getID(), Utils.serialize(tree));
+            }
+            for (CommitObject commit : commits) {
+                writeObject(out, COMMIT, commit.getID(), Utils.serialize(commit));
+            }
+            out.writeByte(END);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // writes an entry of the kind KIND for the object ID serialized as BYTES
+    private static void writeObject(DataOutputStream out, int kind, String id, byte[] bytes)
+            throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(id);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Reads the bundle SOURCE, storing its blobs in BLOBS and its trees in
+    // TREES, and passing its commits to ADDCOMMIT in order.
+    static void read(File source, BlobStore blobs, TreeStore trees, Consumer<CommitObject> addCommit) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(source), Utils.BLOCK_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("bad bundle " + source.getName());
+            }
+            for (int kind = in.readByte(); kind != END; kind = in.readByte()) {
+                String id = in.readUTF();
+                if (kind == BLOB) {
+                    check(id, blobs.write(in, in.readLong()));
+                } else if (kind == TREE) {
+                    TreeObject tree = Utils.deserialize(readBytes(in), TreeObject.class);
+                    check(id, TreeStore.isIntact(id, tree) ? tree.getID() : null);
+                    trees.put(tree);
+                } else if (kind == COMMIT) {
+                    CommitObject commit = Utils.deserialize(readBytes(in), CommitObject.class);
+                    check(id, id.equals(commit.getID()) ? commit.hash() : null);
+                    addCommit.accept(commit);
+                } else {
+                    throw new IllegalArgumentException("bad bundle " + source.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // reads the bytes of an object entry
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // checks that an object sent as ID hashes to it; HASH is null if it does not
+    private static void check(String id, String hash) {
+        if (!id.equals(hash)) {
+            throw new IllegalArgumentException("corrupt object " + id + " in bundle");
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/* Large blobs, stored as lists of chunks. A file is cut into chunks where a
+   rolling hash of its last bytes matches a mask (FastCDC), so a cut depends
+   only on the bytes around it: an edit changes the chunks it touches, and
+   every other chunk of the new version is one already stored. Chunks are
+   content-addressed and stored once each under .gitlet/chunks, fanned out
+   by the first two characters of their ids. A blob keeps its id, the SHA-1
+   of its whole contents, and its chunk list is stored under that id in
+   .gitlet/chunked:
+
+   int     LIST_MAGIC
+   long    size of the blob
+   int     number of chunks
+   then, for each chunk in order:
+   byte[20] SHA-1 of the chunk
+   int      length of the chunk
+
+   Files are chunked and reassembled as streams, so no more than one
+   largest chunk of a file is held in memory. New chunks and chunk lists are
+   forced to disk when the journal commits. */
+class ChunkStore {
+
+    static final int LIST_MAGIC = 0x4743434C; // "GCCL"
+
+    // smallest, normal and largest chunk lengths
+    private static final int MIN_CHUNK = 64 << 10;
+    private static final int NORMAL_CHUNK = 256 << 10;
+    private static final int MAX_CHUNK = 1 << 20;
+    // A cut is made where the hash has these bits clear. Before the normal
+    // length more bits must match, and after it fewer, which keeps chunk
+    // lengths close to the normal one.
+    private static final long MASK_SMALL = 0xFFFFC00000000000L;
+    private static final long MASK_LARGE = 0xFFFC000000000000L;
+    // random value mixed into the hash for each byte value; the seed is
+    // fixed, since the cut points of stored files must never change
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746C6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // directory of the chunks
+    private final File chunkDir;
+    // directory of the chunk lists
+    private final File listDir;
+    // journal that forces the new files
+    private final Journal journal;
+
+    // Constructor
+    ChunkStore(File gitletDir, Journal journal) {
+        chunkDir = Utils.join(gitletDir, "chunks");
+        listDir = Utils.join(gitletDir, "chunked");
+        this.journal = journal;
+    }
+
+    // returns the file of the chunk list of the blob with the given id
+    private File listFile(String id) {
+        return Utils.join(listDir, id);
+    }
+
+    // returns the file of the chunk with the given id
+    private File chunkFile(String id) {
+        return Utils.join(chunkDir, id.substring(0, 2), id.substring(2));
+    }
+
+    // returns true if the blob with the given id is stored as chunks
+    boolean contains(String id) {
+        return listFile(id).isFile();
+    }
+
+    /* The chunk list of a blob. */
+    private static final class ChunkList {
+        final long size;
+        final String[] ids;
+
+        ChunkList(long size, String[] ids) {
+            this.size = size;
+            this.ids = ids;
+        }
+    }
+
+    // reads the chunk list of the blob with the given id
+    private ChunkList list(String id) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(listFile(id))))) {
+            if (in.readInt() != LIST_MAGIC) {
+                throw new IllegalArgumentException("bad chunk list " + id);
+            }
+            long size = in.readLong();
+            String[] ids = new String[in.readInt()];
+            byte[] digest = new byte[20];
+            for (int i = 0; i < ids.length; i += 1) {
+                in.readFully(digest);
+                in.readInt();
+                ids[i] = Utils.hex(digest);
+            }
+            return new ChunkList(size, ids);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // returns the size of the blob with the given id
+    long size(String id) {
+        return list(id).size;
+    }
+
+    // returns a stream of the contents of the blob with the given id,
+    // opening each chunk only when the one before it is used up
+    InputStream open(String id) {
+        String[] ids = list(id).ids;
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < ids.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (next == ids.length) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    next += 1;
+                    return new FileInputStream(chunkFile(ids[next - 1]));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+        });
+    }
+
+    // writes the contents of the blob with the given id to TARGET, copying
+    // each chunk by the file system
+    void copyTo(String id, File target) {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String chunk : list(id).ids) {
+                try (FileChannel in = FileChannel.open(chunkFile(chunk).toPath(),
+                        StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long done = 0; done < size; ) {
+                        done += in.transferTo(done, size - done, out);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // Stores the contents of the working file SOURCE as chunks, writing
+    // only the chunks not stored yet, and returns the id of the blob.
+    String write(File source) {
+        listDir.mkdirs();
+        File temp = null;
+        try (InputStream in = new FileInputStream(source)) {
+            temp = File.createTempFile("tmp-", null, listDir);
+            // nothing below hashes on this thread until both are done with
+            MessageDigest whole = Utils.outerSha1Digest();
+            MessageDigest part = Utils.sha1Digest();
+            long size = 0;
+            int count = 0;
+            try (DataOutputStream list = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)))) {
+                list.writeInt(LIST_MAGIC);
+                list.writeLong(0);
+                list.writeInt(0);
+                byte[] buffer = new byte[MAX_CHUNK];
+                int filled = 0;
+                boolean eof = false;
+                while (!eof || filled > 0) {
+                    while (!eof && filled < buffer.length) {
+                        int n = in.read(buffer, filled, buffer.length - filled);
+                        if (n < 0) {
+                            eof = true;
+                        } else {
+                            filled += n;
+                        }
+                    }
+                    int length = cut(buffer, filled);
+                    whole.update(buffer, 0, length);
+                    part.update(buffer, 0, length);
+                    byte[] digest = part.digest();
+                    store(Utils.hex(digest), buffer, length);
+                    list.write(digest);
+                    list.writeInt(length);
+                    size += length;
+                    count += 1;
+                    System.arraycopy(buffer, length, buffer, 0, filled - length);
+                    filled -= length;
+                }
+            }
+            // the header is filled in once the size and count are known
+            try (FileChannel header = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer fields = ByteBuffer.allocate(12);
+                fields.putLong(size).putInt(count).flip();
+                header.write(fields, 4);
+            }
+            String id = Utils.hex(whole.digest());
+            if (!contains(id)) {
+                Files.move(temp.toPath(), listFile(id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journal.sync(listFile(id));
+            }
+            return id;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    // stores BUFFER[0..LENGTH) as the chunk ID, unless it is already stored
+    private void store(String id, byte[] buffer, int length) throws IOException {
+        File file = chunkFile(id);
+        if (file.isFile()) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File temp = File.createTempFile("tmp-", null, file.getParentFile());
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(buffer, 0, length);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.sync(file);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // Hashes every chunk again, in parallel, and checks that each chunk list
+    // can be read, that its chunks are stored and that their lengths add up
+    // to the size of its blob. Reports each problem to PROBLEMS, adds the
+    // bytes read to READ, and returns the number of blobs.
+    int verify(Consumer<String> problems, AtomicLong read) {
+        File[] fanOut = chunkDir.listFiles(File::isDirectory);
+        Arrays.stream(fanOut == null ? new File[0] : fanOut).parallel().forEach(sub -> {
+            File[] files = sub.listFiles(File::isFile);
+            for (File f : files == null ? new File[0] : files) {
+                String id = sub.getName() + f.getName();
+                if (f.getName().startsWith("tmp-")) {
+                    continue;
+                }
+                read.addAndGet(f.length());
+                try {
+                    if (!Utils.sha1(f).equals(id)) {
+                        problems.accept("corrupt chunk " + id);
+                    }
+                } catch (IllegalArgumentException e) {
+                    problems.accept("corrupt chunk " + id);
+                }
+            }
+        });
+        List<String> names = Utils.plainFilenamesIn(listDir);
+        List<String> lists = new ArrayList<>();
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            if (!name.startsWith("tmp-")) {
+                lists.add(name);
+            }
+        }
+        lists.parallelStream().forEach(id -> {
+            ChunkList list;
+            try {
+                list = list(id);
+            } catch (IllegalArgumentException e) {
+                problems.accept("corrupt chunk list " + id);
+                return;
+            }
+            long size = 0;
+            for (String chunk : list.ids) {
+                File f = chunkFile(chunk);
+                if (!f.isFile()) {
+                    problems.accept("missing chunk " + chunk + " (from blob " + id + ")");
+                }
+                size += f.length();
+            }
+            if (size != list.size) {
+                problems.accept("corrupt blob " + id);
+            }
+        });
+        return lists.size();
+    }
+
+    // Deletes the chunk lists of the blobs not in LIVE, and the chunks no
+    // remaining list holds, of those last modified before CUTOFF, in
+    // milliseconds, and returns how many. Adds the bytes freed to FREED.
+    int sweep(Set<String> live, long cutoff, AtomicLong freed) {
+        int deleted = 0;
+        Set<String> liveChunks = ConcurrentHashMap.newKeySet();
+        List<String> lists = Utils.plainFilenamesIn(listDir);
+        for (String name : lists == null ? new ArrayList<String>() : lists) {
+            File list = listFile(name);
+            long length = list.length();
+            if ((name.startsWith("tmp-") || !live.contains(name))
+                    && list.lastModified() < cutoff && list.delete()) {
+                freed.addAndGet(length);
+                deleted += 1;
+            }
+        }
+        // a list being written holds chunks not listed yet, but they are new
+        List<String> kept = Utils.plainFilenamesIn(listDir);
+        (kept == null ? new ArrayList<String>() : kept).parallelStream()
+                .filter(name -> !name.startsWith("tmp-"))
+                .forEach(name -> liveChunks.addAll(Arrays.asList(list(name).ids)));
+        File[] fanOut = chunkDir.listFiles(File::isDirectory);
+        if (fanOut == null) {
+            return deleted;
+        }
+        return deleted + Arrays.stream(fanOut).parallel().mapToInt(sub -> {
+            int swept = 0;
+            File[] files = sub.listFiles(File::isFile);
+            for (File f : files == null ? new File[0] : files) {
+                long length = f.length();
+                if (!liveChunks.contains(sub.getName() + f.getName())
+                        && f.lastModified() < cutoff && f.delete()) {
+                    freed.addAndGet(length);
+                    swept += 1;
+                }
+            }
+            return swept;
+        }).sum();
+    }
+
+    // Returns the length of the chunk that starts BUFFER, which holds N
+    // bytes. N is less than a largest chunk only at the end of the file.
+    static int cut(byte[] buffer, int n) {
+        if (n <= MIN_CHUNK) {
+            return n;
+        }
+        int limit = Math.min(n, MAX_CHUNK);
+        int normal = Math.min(limit, NORMAL_CHUNK);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
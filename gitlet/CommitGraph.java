@@ -0,0 +1,562 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/* The shape of the history: for every commit, the positions of its parents,
+   its generation number (one more than the largest generation of its
+   parents, 1 for a root) and its date, indexed by the position of the
+   commit. Ancestry questions are answered from these records without
+   reading any CommitObject, and the generation numbers let a walk stop at
+   commits that are too old to matter.
+
+   The file .gitlet/commit-graph holds one fixed-size record per commit.
+   Records are only ever appended, parents before their children, so a
+   position never changes. Commits missing from the file, such as those of
+   repositories written before it existed, are added when first asked for.
+
+   graph  := "GCGR" int(record size) record*
+   record := id(20 raw bytes) int(parent) int(second parent) int(generation) long(date) */
+class CommitGraph {
+
+    // magic number of the graph file
+    private static final int MAGIC = 0x47434752;
+    // bytes before the first record
+    private static final int HEADER = 8;
+    // bytes per record
+    private static final int RECORD_SIZE = 40;
+    // position standing for no commit
+    static final int NONE = -1;
+    // formats of commit dates, and of days
+    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final String DAY_PATTERN = "yyyy-MM-dd";
+    // bits of a position when sorting by date
+    private static final int POS_BITS = 28;
+
+    // flags used while looking for merge bases
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+    private static final int QUEUED = 16;
+
+    // the graph file
+    private final File file;
+    // reads a commit that is not in the graph yet
+    private final Function<String, CommitObject> reader;
+    // the records of the file, mapped into memory, or null
+    private MappedByteBuffer map;
+    // number of records in MAP
+    private int mapped;
+    // number of records in the file
+    private int saved;
+    // number of commits in the graph
+    private int count;
+    // the parents, the generation and the date of each commit added since
+    // the file was mapped, at its position minus MAPPED
+    private int[] parent = new int[0];
+    private int[] secondParent = new int[0];
+    private int[] generation = new int[0];
+    private long[] date = new long[0];
+    // ids of the commits added since the file was mapped
+    private final List<String> added = new ArrayList<>();
+    // positions of the commits looked up so far, by id
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    // true if every record of the file is in POSITIONS
+    private boolean indexed;
+
+    // Constructor
+    private CommitGraph(File file, Function<String, CommitObject> reader) {
+        this.file = file;
+        this.reader = reader;
+    }
+
+    // Reads the commit graph of the repository in GITLETDIR. READER reads
+    // the commits that have to be added to it.
+    static CommitGraph load(File gitletDir, Function<String, CommitObject> reader) {
+        CommitGraph result = new CommitGraph(Utils.join(gitletDir, "commit-graph"), reader);
+        result.read();
+        return result;
+    }
+
+    // maps the graph file into memory; its records are read where they lie
+    private void read() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < HEADER) {
+                return;
+            }
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != RECORD_SIZE) {
+                return;
+            }
+            // a record cut short by a crash is ignored, and overwritten by save()
+            map = buffer;
+            mapped = (int) ((length - HEADER) / RECORD_SIZE);
+            saved = mapped;
+            count = mapped;
+        } catch (IOException excp) {
+            // an unreadable graph is rebuilt from the commits
+        }
+    }
+
+    // makes room in the arrays for at least SIZE added commits
+    private void grow(int size) {
+        if (size > parent.length) {
+            int capacity = Math.max(size, 2 * parent.length + 16);
+            parent = Arrays.copyOf(parent, capacity);
+            secondParent = Arrays.copyOf(secondParent, capacity);
+            generation = Arrays.copyOf(generation, capacity);
+            date = Arrays.copyOf(date, capacity);
+        }
+    }
+
+    // returns the position of the first parent of the commit at POS, or NONE
+    int parentAt(int pos) {
+        return pos < mapped ? map.getInt(HEADER + pos * RECORD_SIZE + 20) : parent[pos - mapped];
+    }
+
+    // returns the position of the second parent of the commit at POS, or NONE
+    int secondParentAt(int pos) {
+        return pos < mapped ? map.getInt(HEADER + pos * RECORD_SIZE + 24) : secondParent[pos - mapped];
+    }
+
+    // returns the generation of the commit at POS
+    int generationAt(int pos) {
+        return pos < mapped ? map.getInt(HEADER + pos * RECORD_SIZE + 28) : generation[pos - mapped];
+    }
+
+    // returns the date of the commit at POS, in seconds
+    long dateAt(int pos) {
+        return pos < mapped ? map.getLong(HEADER + pos * RECORD_SIZE + 32) : date[pos - mapped];
+    }
+
+    // returns the number of commits in the graph
+    int size() {
+        return count;
+    }
+
+    // Returns the positions of all commits, newest first; commits made in
+    // the same second are ordered by decreasing position. Commits are mostly
+    // appended in the order they were made, and then no sort is needed.
+    int[] byDate() {
+        int[] result = new int[count];
+        boolean ordered = true;
+        for (int pos = 1; pos < count && ordered; pos += 1) {
+            ordered = dateAt(pos - 1) <= dateAt(pos);
+        }
+        if (ordered) {
+            for (int i = 0; i < count; i += 1) {
+                result[i] = count - 1 - i;
+            }
+            return result;
+        }
+        // each key holds the date above the position, which fits in POS_BITS
+        long[] keys = new long[count];
+        for (int pos = 0; pos < count; pos += 1) {
+            keys[pos] = dateAt(pos) << POS_BITS | pos;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i += 1) {
+            result[i] = (int) (keys[count - 1 - i] & ((1L << POS_BITS) - 1));
+        }
+        return result;
+    }
+
+    // returns the id of the commit at position POS
+    String idAt(int pos) {
+        if (pos >= mapped) {
+            return added.get(pos - mapped);
+        }
+        byte[] raw = new byte[20];
+        int base = HEADER + pos * RECORD_SIZE;
+        for (int k = 0; k < 20; k += 1) {
+            raw[k] = map.get(base + k);
+        }
+        return PackFile.toHex(raw);
+    }
+
+    // Returns the position of the commit with the given id, or NONE if it
+    // is not in the graph. Records of the file are searched from the newest,
+    // since lookups are mostly of recent commits such as branch heads.
+    private int find(String id) {
+        Integer pos = positions.get(id);
+        if (pos != null || indexed) {
+            return pos == null ? NONE : pos;
+        }
+        byte[] key = PackFile.fromHex(id);
+        if (key == null) {
+            return NONE;
+        }
+        int head = ((key[0] & 0xff) << 24) | ((key[1] & 0xff) << 16)
+                | ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+        for (int i = mapped - 1; i >= 0; i -= 1) {
+            int base = HEADER + i * RECORD_SIZE;
+            if (map.getInt(base) != head) {
+                continue;
+            }
+            int k = 4;
+            while (k < 20 && map.get(base + k) == key[k]) {
+                k += 1;
+            }
+            if (k == 20) {
+                positions.put(id, i);
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    // Returns the position of the commit with the given id, adding it and
+    // any of its ancestors missing from the graph first.
+    int position(String id) {
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        // adding commits looks up many that are missing; index them all once
+        for (int i = 0; i < mapped; i += 1) {
+            positions.putIfAbsent(idAt(i), i);
+        }
+        indexed = true;
+        ArrayDeque<CommitObject> pending = new ArrayDeque<>();
+        pending.push(readCommit(id));
+        while (!pending.isEmpty()) {
+            CommitObject commit = pending.peek();
+            if (find(commit.getID()) != NONE) {
+                pending.pop();
+                continue;
+            }
+            String missing = null;
+            for (String p : parentsOf(commit)) {
+                if (p != null && find(p) == NONE) {
+                    missing = p;
+                    break;
+                }
+            }
+            if (missing != null) {
+                pending.push(readCommit(missing));
+            } else {
+                append(commit);
+                pending.pop();
+            }
+        }
+        return find(id);
+    }
+
+    // adds the new commit COMMIT, and any of its ancestors missing from the graph
+    void add(CommitObject commit) {
+        for (String p : parentsOf(commit)) {
+            if (p != null) {
+                position(p);
+            }
+        }
+        append(commit);
+    }
+
+    // returns the parent ids of COMMIT
+    private static String[] parentsOf(CommitObject commit) {
+        return new String[] {commit.getParent(), commit.getSecondParent()};
+    }
+
+    // reads the commit with the given id, which must exist
+    private CommitObject readCommit(String id) {
+        CommitObject commit = reader.apply(id);
+        if (commit == null) {
+            throw new IllegalArgumentException("missing commit " + id);
+        }
+        return commit;
+    }
+
+    // appends COMMIT, whose parents are all in the graph
+    private void append(CommitObject commit) {
+        String[] parents = parentsOf(commit);
+        int first = parents[0] == null ? NONE : find(parents[0]);
+        int second = parents.length < 2 || parents[1] == null ? NONE : find(parents[1]);
+        int gen = 0;
+        if (first != NONE) {
+            gen = generationAt(first);
+        }
+        if (second != NONE) {
+            gen = Math.max(gen, generationAt(second));
+        }
+        int slot = count - mapped;
+        grow(slot + 1);
+        parent[slot] = first;
+        secondParent[slot] = second;
+        generation[slot] = gen + 1;
+        date[slot] = dateOf(commit);
+        added.add(commit.getID());
+        positions.put(commit.getID(), count);
+        count += 1;
+    }
+
+    // returns the date of COMMIT in seconds, comparable between commits
+    private static long dateOf(CommitObject commit) {
+        return parseDate(commit.getDate(), false);
+    }
+
+    // Returns the date TEXT in seconds, as dateOf() counts them. TEXT is
+    // either a commit date or a day (yyyy-MM-dd), which stands for its first
+    // second, or its last one if END. Throws IllegalArgumentException if TEXT
+    // is neither.
+    static long parseDate(String text, boolean end) {
+        try {
+            if (text.length() == DAY_PATTERN.length()) {
+                LocalDate day = LocalDate.parse(text, DateTimeFormatter.ofPattern(DAY_PATTERN));
+                long first = day.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+                return end ? first + 24 * 60 * 60 - 1 : first;
+            }
+            return LocalDateTime.parse(text, DateTimeFormatter.ofPattern(DATE_PATTERN))
+                    .toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException excp) {
+            throw new IllegalArgumentException("bad date " + text);
+        }
+    }
+
+    // Returns true if the commit ANCESTOR is the commit DESCENDANT or one of
+    // its ancestors. The walk skips every commit whose generation is lower
+    // than that of ANCESTOR, since none of them can lead to it.
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        int minGeneration = generationAt(target);
+        if (generationAt(start) < minGeneration) {
+            return false;
+        }
+        BitSet seen = new BitSet(count);
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = start;
+        seen.set(start);
+        while (size > 0) {
+            int pos = stack[--size];
+            if (pos == target) {
+                return true;
+            }
+            if (size + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            int p = parentAt(pos);
+            if (p != NONE && !seen.get(p) && generationAt(p) >= minGeneration) {
+                seen.set(p);
+                stack[size++] = p;
+            }
+            p = secondParentAt(pos);
+            if (p != NONE && !seen.get(p) && generationAt(p) >= minGeneration) {
+                seen.set(p);
+                stack[size++] = p;
+            }
+        }
+        return false;
+    }
+
+    // Returns the best common ancestors of the commits A and B: those common
+    // ancestors that are not ancestors of another common ancestor. There is
+    // more than one after criss-cross merges; they are ordered by decreasing
+    // generation, then newest first, then by id, so that the first is the
+    // same whichever process asks. Commits are visited in order of decreasing
+    // generation, so the walk ends as soon as only commits below a common
+    // ancestor remain to be visited.
+    List<String> mergeBases(String a, String b) {
+        int x = position(a);
+        int y = position(b);
+        List<String> result = new ArrayList<>();
+        if (x == y) {
+            result.add(a);
+            return result;
+        }
+        int[] flags = new int[count];
+        Queue queue = new Queue();
+        flags[x] = ONE | QUEUED;
+        flags[y] = TWO | QUEUED;
+        queue.add(x);
+        queue.add(y);
+        // number of queued commits not known to be below a common ancestor
+        int fresh = 2;
+        List<Integer> found = new ArrayList<>();
+        while (fresh > 0) {
+            int pos = queue.poll();
+            flags[pos] &= ~QUEUED;
+            if ((flags[pos] & STALE) == 0) {
+                fresh -= 1;
+            }
+            int paint = flags[pos] & (ONE | TWO | STALE);
+            if (paint == (ONE | TWO)) {
+                if ((flags[pos] & RESULT) == 0) {
+                    flags[pos] |= RESULT;
+                    found.add(pos);
+                }
+                // everything below a common ancestor is a worse one
+                paint |= STALE;
+            }
+            fresh += paintParent(parentAt(pos), paint, flags, queue);
+            fresh += paintParent(secondParentAt(pos), paint, flags, queue);
+        }
+        found.sort((i, j) -> {
+            if (generationAt(i) != generationAt(j)) {
+                return Integer.compare(generationAt(j), generationAt(i));
+            } else if (dateAt(i) != dateAt(j)) {
+                return Long.compare(dateAt(j), dateAt(i));
+            }
+            return idAt(i).compareTo(idAt(j));
+        });
+        for (int candidate : found) {
+            boolean redundant = false;
+            for (int other : found) {
+                if (other != candidate && generationAt(other) > generationAt(candidate)
+                        && isAncestor(idAt(candidate), idAt(other))) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(idAt(candidate));
+            }
+        }
+        return result;
+    }
+
+    // Adds PAINT to the flags of the commit P, queueing it if they changed.
+    // Returns the change in the number of queued commits that are not stale.
+    private int paintParent(int p, int paint, int[] flags, Queue queue) {
+        if (p == NONE) {
+            return 0;
+        }
+        int old = flags[p];
+        if ((old & paint) == paint) {
+            return 0;
+        }
+        int updated = old | paint;
+        boolean wasQueued = (old & QUEUED) != 0;
+        flags[p] = updated | QUEUED;
+        if (!wasQueued) {
+            queue.add(p);
+        }
+        int before = wasQueued && (old & STALE) == 0 ? 1 : 0;
+        int after = (updated & STALE) == 0 ? 1 : 0;
+        return after - before;
+    }
+
+    /* A heap of commit positions, highest generation first. */
+    private class Queue {
+        // the heap of positions
+        private int[] heap = new int[16];
+        // number of positions in the heap
+        private int size;
+
+        // returns true if the commit at I comes out before the commit at J
+        private boolean before(int i, int j) {
+            int gi = generationAt(i);
+            int gj = generationAt(j);
+            return gi != gj ? gi > gj : i > j;
+        }
+
+        // adds the position POS
+        void add(int pos) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, 2 * size);
+            }
+            int k = size++;
+            while (k > 0 && before(pos, heap[(k - 1) / 2])) {
+                heap[k] = heap[(k - 1) / 2];
+                k = (k - 1) / 2;
+            }
+            heap[k] = pos;
+        }
+
+        // removes and returns the first position
+        int poll() {
+            int result = heap[0];
+            int last = heap[--size];
+            int k = 0;
+            while (2 * k + 1 < size) {
+                int child = 2 * k + 1;
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child += 1;
+                }
+                if (!before(heap[child], last)) {
+                    break;
+                }
+                heap[k] = heap[child];
+                k = child;
+            }
+            heap[k] = last;
+            return result;
+        }
+    }
+
+    // Writes the commits added since the graph was read. If the file is not
+    // the one that was read, because it was missing or another process
+    // appended to it, the whole graph is written again instead.
+    void save() {
+        if (count == saved) {
+            return;
+        }
+        try {
+            long expected = HEADER + (long) saved * RECORD_SIZE;
+            if (saved > 0 && file.length() == expected) {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16))) {
+                    writeRecords(out, saved);
+                }
+            } else if (saved > 0 && file.length() > expected && file.length() < expected + RECORD_SIZE) {
+                // drop a record cut short by a crash before appending
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    out.setLength(expected);
+                }
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16))) {
+                    writeRecords(out, saved);
+                }
+            } else {
+                file.getParentFile().mkdirs();
+                File temp = File.createTempFile("tmp-", ".graph", file.getParentFile());
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(RECORD_SIZE);
+                    writeRecords(out, 0);
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        saved = count;
+    }
+
+    // writes the records from position FROM on to OUT
+    private void writeRecords(DataOutputStream out, int from) throws IOException {
+        for (int pos = from; pos < count; pos += 1) {
+            out.write(PackFile.fromHex(idAt(pos)));
+            out.writeInt(parentAt(pos));
+            out.writeInt(secondParentAt(pos));
+            out.writeInt(generationAt(pos));
+            out.writeLong(dateAt(pos));
+        }
+    }
+}
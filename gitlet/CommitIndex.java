@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/* The ids of all commits in sorted order, so that an abbreviated id is
+   resolved by binary search instead of listing the commit store. The file
+   .gitlet/commit-index holds a sorted run of raw 20-byte ids followed by a
+   short unsorted tail of ids appended since; the tail is merged into the
+   sorted run once it grows past MAX_TAIL entries.
+
+   index := "GCMI" int(sorted count) id* (tail id)*                       */
+class CommitIndex {
+
+    // magic number of the index file
+    private static final int MAGIC = 0x47434d49;
+    // bytes before the first id
+    private static final int HEADER = 8;
+    // bytes per id
+    private static final int ID_SIZE = 20;
+    // most ids kept in the unsorted tail
+    private static final int MAX_TAIL = 1024;
+
+    // the index file
+    private final File file;
+    // the sorted run, mapped into memory, or null if there is none
+    private MappedByteBuffer sorted;
+    // number of ids in the sorted run
+    private int count;
+    // ids of the tail, including those not yet written
+    private final TreeSet<String> tail = new TreeSet<>();
+    // ids added since the index was last written
+    private final List<String> unsaved = new ArrayList<>();
+    // true if the whole file must be written again
+    private boolean rewrite;
+
+    // Constructor
+    private CommitIndex(File file) {
+        this.file = file;
+    }
+
+    // Reads the index of the repository in GITLETDIR. If there is none, it is
+    // built from the ids in COMMITS and written by the next save().
+    static CommitIndex load(File gitletDir, ObjectStore commits) {
+        CommitIndex result = new CommitIndex(Utils.join(gitletDir, "commit-index"));
+        if (!result.read()) {
+            result.rebuild(commits.ids());
+        }
+        return result;
+    }
+
+    // maps the index file into memory; returns false if it is missing or damaged
+    private boolean read() {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < HEADER || (length - HEADER) % ID_SIZE != 0) {
+                return false;
+            }
+            MappedByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt(0) != MAGIC) {
+                return false;
+            }
+            sorted = map;
+            count = map.getInt(4);
+            int total = (int) ((length - HEADER) / ID_SIZE);
+            for (int i = count; i < total; i += 1) {
+                tail.add(idAt(i));
+            }
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    // replaces the contents of the index with IDS
+    private void rebuild(Collection<String> ids) {
+        sorted = null;
+        count = 0;
+        tail.clear();
+        tail.addAll(ids);
+        unsaved.clear();
+        rewrite = true;
+    }
+
+    // returns the number of ids in the index
+    int size() {
+        return count + tail.size();
+    }
+
+    // adds the commit with the given id
+    void add(String id) {
+        if (tail.add(id)) {
+            unsaved.add(id);
+        }
+    }
+
+    // Returns the ids that start with PREFIX, in sorted order, stopping
+    // after LIMIT of them. Ids of commits written by programs that do not
+    // keep the index are found by asking COMMITS, which rebuilds it.
+    List<String> matches(String prefix, int limit, ObjectStore commits) {
+        List<String> result = find(prefix, limit);
+        if (result.isEmpty() && !commits.idsWithPrefix(prefix).isEmpty()) {
+            rebuild(commits.ids());
+            result = find(prefix, limit);
+        }
+        return result;
+    }
+
+    // returns up to LIMIT ids of the index that start with PREFIX
+    private List<String> find(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        if (sorted != null) {
+            for (int i = lowerBound(prefix); i < count && found.size() < limit; i += 1) {
+                String id = idAt(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                found.add(id);
+            }
+        }
+        int fromTail = 0;
+        for (String id : tail.tailSet(prefix)) {
+            if (!id.startsWith(prefix) || fromTail == limit) {
+                break;
+            }
+            found.add(id);
+            fromTail += 1;
+        }
+        List<String> result = new ArrayList<>();
+        for (String id : found) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    // returns the position of the first id of the sorted run not less than PREFIX
+    private int lowerBound(String prefix) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < 2 * ID_SIZE) {
+            padded.append('0');
+        }
+        byte[] key = PackFile.fromHex(padded.substring(0, 2 * ID_SIZE));
+        if (key == null) {
+            // not hex; no id can match, but keep the search well defined
+            return count;
+        }
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // compares the Ith id of the file with KEY, as unsigned bytes
+    private int compareAt(int i, byte[] key) {
+        int base = HEADER + i * ID_SIZE;
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int cmp = Integer.compare(sorted.get(base + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    // returns the Ith id of the file
+    private String idAt(int i) {
+        byte[] raw = new byte[ID_SIZE];
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            raw[k] = sorted.get(HEADER + i * ID_SIZE + k);
+        }
+        return PackFile.toHex(raw);
+    }
+
+    // Writes the ids added since the last save. They are appended to the
+    // tail, unless the tail has grown too long, in which case the whole
+    // index is written again as one sorted run.
+    void save() {
+        if (!rewrite && unsaved.isEmpty()) {
+            return;
+        }
+        try {
+            if (rewrite || tail.size() > MAX_TAIL) {
+                writeSorted();
+            } else {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                    for (String id : unsaved) {
+                        out.write(PackFile.fromHex(id));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unsaved.clear();
+        rewrite = false;
+    }
+
+    // writes every id as a single sorted run, replacing the index file
+    private void writeSorted() throws IOException {
+        TreeSet<String> all = new TreeSet<>(tail);
+        for (int i = 0; i < count; i += 1) {
+            all.add(idAt(i));
+        }
+        file.getParentFile().mkdirs();
+        File temp = File.createTempFile("tmp-", ".idx", file.getParentFile());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(all.size());
+            for (String id : all) {
+                out.write(PackFile.fromHex(id));
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        sorted = null;
+        count = 0;
+        tail.clear();
+        read();
+    }
+}
@@ -3,63 +3,72 @@ package gitlet;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 public class CommitObject implements Serializable {
 
     // Fields
+    // fixed, so that the commits already stored in a repository still read
+    // after edits to this class that leave its fields alone
+    private static final long serialVersionUID = -7919210899871653415L;
+
    // id of this Commit Object
     private String id;
 
     // parent of this Commit Object
     private final String parent;
 
+    // for a merge commit, the head of the branch merged in; else null
+    private final String secondParent;
+
     // log message of this Commit Object
     private final String message;
 
     // time stamp
     private String commitDate;
 
-    // blobs
-    private HashMap<String, String> blobs;
+    // id of the root TreeObject holding the files of this commit
+    private final String tree;
 
-    // the ids of its children
-    private ArrayList<String> children;
+    // Constructor. Commits are stored under their id and never change afterwards.
+    public CommitObject(String parent, String msg, String tree) {
+        this(parent, null, msg, tree);
+    }
 
-    // Constructor
-    public CommitObject(String parent, String msg, HashMap<String, String> blobs, String child) {
+    // Constructor for a merge commit of PARENT and SECONDPARENT
+    public CommitObject(String parent, String secondParent, String msg, String tree) {
         this.parent = parent;
+        this.secondParent = secondParent;
         this.message = msg;
-        this.blobs = blobs;
-        if (child == null) {
-            children = new ArrayList<>();
-        } else {
-            children.add(child);
-        }
+        this.tree = tree;
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         commitDate = dtf.format(LocalDateTime.now());
-        String f;
+        id = hash();
+    }
+
+    // Returns the id the fields of this commit hash to. It is the id of
+    // this commit unless the commit was damaged after it was made.
+    public String hash() {
         String p;
-        if (blobs.isEmpty()) {
-            f = "";
-        } else {
-            f = blobs.toString();
-        }
         if (parent == null) {
             p = "";
         } else {
             p = parent;
         }
-        // creates the id
-        id = Utils.sha1(message, commitDate, f, p);
-
+        if (secondParent == null) {
+            return Utils.sha1(message, commitDate, tree, p);
+        } else {
+            return Utils.sha1(message, commitDate, tree, p, secondParent);
+        }
     }
 
     // get the parent
     public String getParent() {
         return parent;
     }
+    // get the second parent, or null if this is not a merge commit
+    public String getSecondParent() {
+        return secondParent;
+    }
     // get the ID of this commit object
     public String getID() {
         return id;
@@ -72,15 +81,9 @@ public class CommitObject implements Serializable {
     public String getDate() {
         return commitDate;
     }
-    // get the blobs for this commit object
-    public HashMap<String, String> getBlobs() {
-        return blobs;
+    // get the id of the root tree of this commit object
+    public String getTree() {
+        return tree;
     }
-    // get the children of this commit
-    public ArrayList<String> getChildren() {
-        return children; }
-    // set the children of this commit
-    public void addChild(String s) {
-        children.add(s); }
 
 }
@@ -1,42 +1,330 @@
 package gitlet;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
-public class CommitTree implements Serializable {
-    // Map that stores the name of the branch and the last commit in the branch
-    Map<String, CommitObject> branches = new HashMap<>();
+public class CommitTree {
+    // fewest files written by a pool of threads rather than one by one
+    private static final int PARALLEL_WRITES = 16;
+    // most threads writing files at once
+    private static final int WRITERS = 8;
+    // Largest file merged line by line. The line merge reads the three
+    // versions whole, since the diff needs every line of each at once;
+    // rather than stream a merge of larger files, they are left as one
+    // conflict of their whole versions, copied through a block at a time.
+    private static final long MAX_LINE_MERGE = 16 << 20;
+    // bytes of log output buffered before they are written
+    private static final int LOG_BUFFER = 1 << 16;
+    // Directory holding the repository metadata
+    private final File gitletDir;
+    // Journal that the stores, the refs and the staging area write through
+    private final Journal journal;
+    // Store of all commits, keyed by ID
+    private final ObjectStore commits;
+    // Store of the trees the commits point to
+    private final TreeStore trees;
+    // Store of the file contents
+    private final BlobStore blobs;
+    // Cached blob ids of the working files (read lazily, see index())
+    private StatIndex index;
+    // The working directory and its ignore patterns (read lazily, see workingTree())
+    private WorkingTree workingTree;
+    // Reports the working files changed between commands, if a daemon runs one
+    private Watcher watcher;
+    // The working files as of the last status, and the blob ids then of the
+    // files tracked or staged, "" for those missing; only reused while the
+    // watcher says what changed since
+    private TreeSet<String> scannedFiles;
+    private TreeMap<String, String> scannedIDs;
+    // Sorted ids of all commits (read lazily, see commitIndex())
+    private CommitIndex commitIndex;
+    // Messages of all commits (read lazily, see messageIndex())
+    private MessageIndex messageIndex;
+    // Parents and generation numbers of all commits (read lazily, see commitGraph())
+    private CommitGraph commitGraph;
+    // Branches and the name of the current branch
+    private final Refs refs;
     // Name of the current branch we're working on
     String currentBranchName;
-    // CommitObject that points to the head
+    // CommitObject that points to the head (read lazily, see head())
     CommitObject head;
-    // The "root" of our CommitTree
-    CommitObject initialCommit;
     // Staging area
     StagingArea stageArea;
     // ArrayList that stores the names of removed files
-    ArrayList<String> removedFiles = new ArrayList<>();
-    // ArrayList that stores the names of untracked files
-    // (untracked files are files in the staging area)
-    ArrayList<String> untrackedFiles = new ArrayList<>();
-    // Map that stores the ID of the commit and the CommitObject
+    ArrayList<String> removedFiles;
+    // Map that caches the commits read so far, keyed by ID
     Map<String, CommitObject> iDCommits = new HashMap<>();
-    // Stored files that are not staged since it's the same file as the current CommitObject file
-    ArrayList<String> nonStagedFiles = new ArrayList<>();
+    // The staging area as last read from or written to disk
+    private byte[] savedStage;
 
     // Constructor
-    public CommitTree() {
-        initialCommit = new CommitObject(null, "initial commit", new HashMap<>(), null);
-        iDCommits.put(initialCommit.getID(), initialCommit);
-        branches.put("master", initialCommit);
-        currentBranchName = "master";
-        head = initialCommit;
-        stageArea = new StagingArea();
+    private CommitTree(File gitletDir) {
+        this.gitletDir = gitletDir;
+        journal = new Journal(gitletDir);
+        commits = new ObjectStore(gitletDir, "commits", journal);
+        trees = new TreeStore(gitletDir, journal);
+        blobs = new BlobStore(gitletDir, journal);
+        refs = new Refs(gitletDir, journal);
+    }
+
+    // Creates a new repository in GITLETDIR, holding only the initial commit
+    public static CommitTree init(File gitletDir) {
+        gitletDir.mkdir();
+        CommitTree tree = new CommitTree(gitletDir);
+        CommitObject initialCommit = new CommitObject(null, "initial commit", tree.trees.emptyTree());
+        // the message index is made before the commit is stored, or it
+        // would also find it among the stored commits
+        tree.messageIndex().add(initialCommit.getID(), initialCommit.getMessage());
+        tree.commits.put(initialCommit.getID(), initialCommit);
+        tree.iDCommits.put(initialCommit.getID(), initialCommit);
+        tree.commitIndex().add(initialCommit.getID());
+        tree.commitGraph().add(initialCommit);
+        tree.refs.put("master", initialCommit.getID());
+        tree.currentBranchName = "master";
+        tree.head = initialCommit;
+        tree.setStage(new StagingArea());
+        return tree;
+    }
+
+    // message for a repository in the layout of the first gitlet
+    static final String OLD_LAYOUT = "This repository was made by an older gitlet, "
+            + "which kept it in .gitlet/commitTree; it cannot be read.";
+
+    // Returns true if GITLETDIR holds a repository of the first gitlet,
+    // which serialized the whole Commit Tree into one file and had no refs.
+    // Its classes have changed since, so it cannot be opened.
+    public static boolean isOldLayout(File gitletDir) {
+        return Utils.join(gitletDir, "commitTree").isFile()
+                && !Utils.join(gitletDir, "refs").exists();
+    }
+
+    // Opens the repository in GITLETDIR, first undoing the damage of any
+    // crash. Only the current branch name and the staging area are read
+    // here; commits are read when they are needed.
+    public static CommitTree open(File gitletDir) {
+        CommitTree tree = new CommitTree(gitletDir);
+        tree.journal.recover();
+        tree.currentBranchName = tree.refs.currentBranch();
+        tree.savedStage = Utils.readContents(tree.stageFile());
+        tree.setStage(Utils.deserialize(tree.savedStage, StagingArea.class));
+        return tree;
+    }
+
+    // Writes the refs and the staging area, if they changed, to disk, and
+    // makes them durable along with the objects written since the last save.
+    // The indexes are written after, since they can be rebuilt from these.
+    // If another process changed a ref or the staging area since this one
+    // read it, nothing is written, and the state is read again from disk.
+    public void save() {
+        refs.setCurrentBranch(currentBranchName);
+        byte[] stage = Utils.serialize(stageArea);
+        boolean stageChanged = !Arrays.equals(stage, savedStage);
+        try {
+            String conflict = refs.lock();
+            if (conflict == null && stageChanged) {
+                journal.lock(stageFile());
+                byte[] stored = stageFile().isFile() ? Utils.readContents(stageFile()) : null;
+                if (!Arrays.equals(stored, savedStage) && !Arrays.equals(stored, stage)) {
+                    conflict = "the staging area";
+                }
+            }
+            if (conflict != null) {
+                System.out.println("Another process changed " + conflict + "; nothing was saved.");
+                journal.release();
+                refresh();
+                return;
+            }
+            refs.flush();
+            if (stageChanged) {
+                journal.update(stageFile(), stage);
+                savedStage = stage;
+            }
+            journal.commit();
+        } finally {
+            journal.release();
+        }
+        saveIndexes();
+    }
+
+    // Writes the indexes that were loaded. Each is written holding its lock,
+    // so that the appends and rewrites of processes sharing the repository
+    // do not interleave; they are not journaled, since they can be rebuilt.
+    private void saveIndexes() {
+        try {
+            if (index != null) {
+                journal.lock(Utils.join(gitletDir, "index"));
+                index.save();
+            }
+            if (commitIndex != null) {
+                journal.lock(Utils.join(gitletDir, "commit-index"));
+                commitIndex.save();
+            }
+            if (commitGraph != null) {
+                journal.lock(Utils.join(gitletDir, "commit-graph"));
+                commitGraph.save();
+            }
+            if (messageIndex != null) {
+                journal.lock(Utils.join(gitletDir, "messages"));
+                messageIndex.save();
+            }
+        } finally {
+            journal.release();
+        }
+    }
+
+    // Re-reads the state other processes may have changed, after recovering
+    // from any of them crashing: the refs, the staging area, the index and
+    // the packs. Commits and trees never change,
+    // so they stay cached.
+    public void refresh() {
+        journal.recover();
+        refs.refresh();
+        currentBranchName = refs.currentBranch();
+        head = null;
+        savedStage = Utils.readContents(stageFile());
+        setStage(Utils.deserialize(savedStage, StagingArea.class));
+        index = null;
+        workingTree = null;
+        commitIndex = null;
+        commitGraph = null;
+        messageIndex = null;
+        blobs.refresh();
+    }
+
+    // returns the file that holds the staging area
+    private File stageFile() {
+        return Utils.join(gitletDir, "stage");
+    }
+
+    // makes STAGE the staging area
+    private void setStage(StagingArea stage) {
+        stageArea = stage;
+        removedFiles = stage.getRemovedFiles();
+    }
+
+    // returns the commit the head points to
+    private CommitObject head() {
+        if (head == null) {
+            head = branchHead(currentBranchName);
+        }
+        return head;
+    }
+
+    // returns the index of the commit ids
+    private CommitIndex commitIndex() {
+        if (commitIndex == null) {
+            commitIndex = CommitIndex.load(gitletDir, commits);
+        }
+        return commitIndex;
+    }
+
+    // returns the index of the commit messages
+    private MessageIndex messageIndex() {
+        if (messageIndex == null) {
+            messageIndex = MessageIndex.load(gitletDir, commits, this::getCommit);
+        }
+        return messageIndex;
+    }
+
+    // returns the graph of the commits
+    private CommitGraph commitGraph() {
+        if (commitGraph == null) {
+            commitGraph = CommitGraph.load(gitletDir, this::getCommit);
+        }
+        return commitGraph;
+    }
+
+    // returns the cache of the blob ids of the working files
+    private StatIndex index() {
+        if (index == null) {
+            index = StatIndex.load(gitletDir);
+        }
+        return index;
+    }
+
+    // returns the working directory, the one holding the repository
+    private WorkingTree workingTree() {
+        if (workingTree == null) {
+            workingTree = new WorkingTree(gitletDir.getAbsoluteFile().getParentFile());
+        }
+        return workingTree;
+    }
+
+    // makes WATCHER the watcher that reports the working files changed
+    // between commands, forgetting what was scanned without it
+    void setWatcher(Watcher watcher) {
+        if (watcher != this.watcher) {
+            this.watcher = watcher;
+            scannedFiles = null;
+            scannedIDs = null;
+        }
+    }
+
+    // returns FILE as a path relative to the working directory, or FILE
+    // itself if it is outside it
+    private String pathOf(String file) {
+        String path = workingTree().relative(file);
+        return path == null || path.isEmpty() ? file : path;
+    }
+
+    // returns the commit with the given id, or null if there is none
+    private CommitObject getCommit(String id) {
+        if (id == null) {
+            return null;
+        }
+        CommitObject commit = iDCommits.get(id);
+        if (commit == null) {
+            commit = commits.get(id, CommitObject.class);
+            if (commit != null) {
+                iDCommits.put(id, commit);
+            }
+        }
+        return commit;
+    }
+
+    // returns true if a commit with the given id exists
+    private boolean commitExists(String id) {
+        return getCommit(id) != null;
+    }
+
+    // returns the blob id of FILE in the commit C, or null if C does not track it
+    private String blobOf(CommitObject c, String file) {
+        return trees.lookup(c.getTree(), file);
+    }
+
+    // returns the last commit in the branch NAME, or null if there is no such branch
+    private CommitObject branchHead(String name) {
+        return getCommit(refs.get(name));
     }
 
     // Creates a new commit, tracks the saved files
@@ -45,136 +333,184 @@ public class CommitTree implements Serializable {
             System.out.println("Please enter a commit message");
             return;
         }
-        if (stageArea.getBlobs().isEmpty() && nonStagedFiles.isEmpty()
-                && untrackedFiles.isEmpty()) {
+        if (stageArea.getBlobs().isEmpty() && removedFiles.isEmpty()
+                && stageArea.getMergeParent() == null) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        HashMap<String, String> parentBlobs = head.getBlobs();
-        HashMap<String, String> newCommitBlobs = new HashMap<>();
-        // copy over the parent blobs
-        if (parentBlobs != null) {
-            newCommitBlobs.putAll(parentBlobs);
-        }
-        // replace any of the parent blobs with the blobs found in the staging area
-        for (String fileName : stageArea.getBlobs().keySet()) {
-            // don't include the file if it is marked as untracked
-            if (!untrackedFiles.contains(fileName)) {
-                if (newCommitBlobs.containsKey(fileName)) {
-                    newCommitBlobs.replace(fileName, stageArea.getBlobs().get(fileName));
-                } else { // if the parent does not contain the staged blob
-                    // (aka added a new file), add it
-                    newCommitBlobs.put(fileName, stageArea.getBlobs().get(fileName));
-                }
-            } else {
-                untrackedFiles.remove(fileName);
-                newCommitBlobs.remove(fileName);
-            }
+        // the files that differ from the parent: the blobs found in the staging
+        // area, and the removed files, which are dropped
+        HashMap<String, String> changes = new HashMap<>(stageArea.getBlobs());
+        for (String fileName : removedFiles) {
+            changes.put(fileName, null);
         }
-        // create new commit with head as parent, and has the same blobs as the parent
-        CommitObject newCommit = new CommitObject(head.getID(), message, newCommitBlobs, null);
-        //set newCommit as the child of the head
-        head.addChild(newCommit.getID());
-        // maps newCommit in idCommits
+        // the new tree shares every unchanged directory with the parent's tree
+        String newTree = trees.write(head().getTree(), changes);
+        // create new commit with head as parent, and the commit being
+        // merged, if any, as second parent
+        CommitObject newCommit = new CommitObject(head().getID(),
+                stageArea.getMergeParent(), message, newTree);
+        // indexes the message first, as init does, then stores newCommit
+        // and maps it in idCommits
+        messageIndex().add(newCommit.getID(), message);
+        commits.put(newCommit.getID(), newCommit);
         iDCommits.put(newCommit.getID(), newCommit);
+        commitIndex().add(newCommit.getID());
+        commitGraph().add(newCommit);
 
         // clear staging area
         stageArea.clear();
         removedFiles.clear();
-        untrackedFiles.clear();
-        nonStagedFiles.clear();
         head = newCommit;
-        branches.put(currentBranchName, newCommit);
+        refs.put(currentBranchName, newCommit.getID());
     }
 
-    // Adds the file to the staging area
-    public void add(String fileName) {
-        File file = new File(fileName);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            return;
+    // Adds the files to the staging area; a directory stands for every file
+    // under it that is not ignored. The files are hashed, and the new ones
+    // copied into the store, several at a time.
+    public void add(String... fileNames) {
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        for (String fileName : fileNames) {
+            File file = new File(fileName);
+            String path = workingTree().relative(fileName);
+            if (path != null && file.isDirectory()) {
+                paths.addAll(workingTree().files(path));
+            } else if (path != null && file.isFile()) {
+                paths.add(path);
+            } else {
+                System.out.println("File does not exist.");
+                return;
+            }
         }
-        byte[] content = Utils.readContents(file);
-        String id = Utils.sha1(content);
-        boolean isAdd = true;
-        for (String blobID : head.getBlobs().values()) {
-            if (blobID.equals(id)) {
-                isAdd = false;
-                nonStagedFiles.add(fileName);
+        List<String> names = new ArrayList<>(paths);
+        // the files are only read if they changed since their ids were last computed
+        Map<String, String> ids = index().blobIDs(names);
+        List<String> unstored = new ArrayList<>();
+        for (String fileName : names) {
+            String id = ids.get(fileName);
+            if (!id.equals(blobOf(head(), fileName)) && !blobs.contains(id)) {
+                unstored.add(fileName);
             }
         }
-        if (isAdd) {
-            stageArea.add(fileName);
+        Map<String, String> stored = new ConcurrentHashMap<>();
+        unstored.parallelStream().forEach(f -> stored.put(f, blobs.writeFile(new File(f))));
+        for (String fileName : names) {
+            String id = stored.getOrDefault(fileName, ids.get(fileName));
+            if (id.equals(blobOf(head(), fileName))) {
+                stageArea.remove(fileName);
+            } else {
+                stageArea.add(fileName, id, blobs);
+            }
+            removedFiles.remove(fileName);
         }
-        untrackedFiles.remove(fileName);
-        removedFiles.remove(fileName);
     }
 
     // Untrack file, indicating it is not to be included in
     // next commit even if currently tracked
     public void rm(String fileName) {
-        if (!stageArea.getBlobs().containsKey(fileName)
-                && !head.getBlobs().containsKey(fileName)
-                && !nonStagedFiles.contains(fileName)) {
+        fileName = pathOf(fileName);
+        boolean tracked = blobOf(head(), fileName) != null;
+        if (!stageArea.getBlobs().containsKey(fileName) && !tracked) {
             System.out.println("No reason to remove the file.");
             return;
         }
-        if (head.getBlobs().containsKey(fileName)) {
-            File fileDelete = new File(fileName);
-            Utils.restrictedDelete(fileDelete);
-            untrackedFiles.add(fileName);
-            removedFiles.add(fileName);
-        }
-        if (stageArea.getBlobs().containsKey(fileName)) {
-            stageArea.remove(fileName);
+        stageArea.remove(fileName);
+        if (tracked) {
+            deleteHelper(fileName);
+            if (!removedFiles.contains(fileName)) {
+                removedFiles.add(fileName);
+            }
         }
+    }
 
+    // Prints out all the information from each commit, starting from the
+    // head all the way to initial. Only the LIMIT newest commits dated from
+    // SINCE to UNTIL, in the seconds of CommitGraph, are printed. The walk
+    // follows the graph, so only the commits printed are read.
+    public void log(int limit, long since, long until) {
+        PrintWriter out = logWriter();
+        int printed = 0;
+        CommitGraph graph = commitGraph();
+        for (int pos = graph.position(head().getID()); pos != CommitGraph.NONE && printed < limit;
+             pos = graph.parentAt(pos)) {
+            long date = graph.dateAt(pos);
+            if (date >= since && date <= until) {
+                printCommit(out, graph.idAt(pos));
+                printed += 1;
+            }
+        }
+        out.flush();
     }
 
-    // Prints out all the information from each commit,
-    // starting from the head all the way to initial
-    public void log() {
-        CommitObject curr = head;
-        while (curr != null) {
-            System.out.println("===");
-            System.out.println("Commit " + curr.getID());
-            System.out.println(curr.getDate());
-            System.out.println(curr.getMessage() + "\n");
-            curr = iDCommits.get(curr.getParent());
+    // Prints out all the information from every commit, newest first, with
+    // the same LIMIT, SINCE and UNTIL as log()
+    public void globalLog(int limit, long since, long until) {
+        CommitGraph graph = commitGraph();
+        if (graph.size() < commitIndex().size()) {
+            // commits the graph has not been told of yet, such as those of
+            // repositories written before it existed
+            for (String id : commitIndex().matches("", Integer.MAX_VALUE, commits)) {
+                graph.position(id);
+            }
         }
+        PrintWriter out = logWriter();
+        int printed = 0;
+        for (int pos : graph.byDate()) {
+            if (printed == limit) {
+                break;
+            }
+            long date = graph.dateAt(pos);
+            if (date >= since && date <= until) {
+                printCommit(out, graph.idAt(pos));
+                printed += 1;
+            }
+        }
+        out.flush();
+    }
+
+    // returns a writer to standard output that buffers a page of the log
+    private static PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), LOG_BUFFER));
     }
 
-    // Prints out all the information from every commit (order does not matter)
-    public void globalLog() {
-        for (CommitObject c : iDCommits.values()) {
-            System.out.println("===");
-            System.out.println("Commit " + c.getID());
-            System.out.println(c.getDate());
-            System.out.println(c.getMessage() + "\n");
+    // prints the commit with the given id to OUT, reading it without
+    // keeping it, so that a long log holds no more than one commit at a time
+    private void printCommit(PrintWriter out, String id) {
+        CommitObject c = iDCommits.get(id);
+        if (c == null) {
+            c = commits.get(id, CommitObject.class);
         }
+        out.println("===");
+        out.println("Commit " + c.getID());
+        out.println(c.getDate());
+        out.println(c.getMessage() + "\n");
     }
 
     // Prints out all IDs of commits that have the given message
     public void find(String message) {
-        boolean found = false;
-        for (CommitObject c : iDCommits.values()) {
-            if (c.getMessage().equals(message)) {
-                found = true;
-                System.out.println(c.getID());
-            }
-        }
-        if (!found) {
+        printFound(messageIndex().exact(message));
+    }
+
+    // Prints out all IDs of commits whose message holds TEXT, ignoring case
+    public void findGrep(String text) {
+        printFound(messageIndex().grep(text));
+    }
+
+    // prints out IDS, the commits found by find, one per line
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String id : ids) {
+            System.out.println(id);
+        }
     }
 
     // Prints out the status of the gitlet
     public void status() {
         System.out.println("=== Branches ===");
         ArrayList<String> sortedBranches = new ArrayList<>();
-        for (String key : branches.keySet()) {
-            sortedBranches.add(key);
-        }
+        sortedBranches.addAll(refs.names());
         sortedBranches.sort(Comparator.naturalOrder());
         for (String key : sortedBranches) {
             if (key.equals(currentBranchName)) {
@@ -193,12 +529,113 @@ public class CommitTree implements Serializable {
             System.out.println(key);
         }
         System.out.println("\n=== Removed Files ===");
-        for (String file : removedFiles) {
+        ArrayList<String> sortedRemoved = new ArrayList<>(removedFiles);
+        sortedRemoved.sort(Comparator.naturalOrder());
+        for (String file : sortedRemoved) {
             System.out.println(file);
         }
-        // last two sections are optional, can leave blank
+        TreeSet<String> untracked = new TreeSet<>();
+        TreeMap<String, String> unstaged = unstagedChanges(untracked);
         System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> change : unstaged.entrySet()) {
+            System.out.println(change.getKey() + " (" + change.getValue() + ")");
+        }
         System.out.println("\n=== Untracked Files ===");
+        for (String file : untracked) {
+            System.out.println(file);
+        }
+    }
+
+    // Prints the status one file per line, for scripts: two letters, for the
+    // staged change and for the unstaged one, then the path. A staged change
+    // is A (added), M (modified) or D (removed), an unstaged one M
+    // (modified) or D (deleted), and a blank is no change. Untracked files
+    // follow, marked ??.
+    public void statusPorcelain() {
+        TreeSet<String> untracked = new TreeSet<>();
+        TreeMap<String, String> unstaged = unstagedChanges(untracked);
+        TreeMap<String, Character> staged = new TreeMap<>();
+        for (String file : stageArea.getBlobs().keySet()) {
+            staged.put(file, blobOf(head(), file) == null ? 'A' : 'M');
+        }
+        for (String file : removedFiles) {
+            staged.put(file, 'D');
+        }
+        TreeSet<String> changed = new TreeSet<>(staged.keySet());
+        changed.addAll(unstaged.keySet());
+        for (String file : changed) {
+            String change = unstaged.get(file);
+            char working = change == null ? ' ' : change.equals("deleted") ? 'D' : 'M';
+            System.out.println("" + staged.getOrDefault(file, ' ') + working + " " + file);
+        }
+        for (String file : untracked) {
+            System.out.println("?? " + file);
+        }
+    }
+
+    // Compares the working files with the staging area and the head. Returns
+    // the changes not staged for commit, "modified" or "deleted" keyed by
+    // path, and adds the untracked files to UNTRACKED. Only the tracked and
+    // staged files are hashed, and only those whose stat index entries are
+    // stale; the working directory is listed in parallel. With a watcher,
+    // only the paths changed since the previous status are looked at.
+    private TreeMap<String, String> unstagedChanges(TreeSet<String> untracked) {
+        HashMap<String, String> tracked = trees.flatten(head().getTree());
+        HashMap<String, String> staged = stageArea.getBlobs();
+        TreeSet<String> known = new TreeSet<>(tracked.keySet());
+        known.addAll(staged.keySet());
+        Set<String> changed = watcher == null ? null : watcher.changes();
+        if (changed == null || scannedFiles == null) {
+            scannedFiles = workingTree().files("");
+            scannedIDs = new TreeMap<>();
+        } else {
+            for (String path : changed) {
+                rescan(path);
+            }
+        }
+        List<String> unscanned = new ArrayList<>();
+        for (String file : known) {
+            if (!scannedIDs.containsKey(file)) {
+                unscanned.add(file);
+            }
+        }
+        Map<String, String> ids = index().blobIDs(unscanned);
+        for (String file : unscanned) {
+            scannedIDs.put(file, ids.getOrDefault(file, ""));
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String file : known) {
+            String expected = staged.containsKey(file) ? staged.get(file) : tracked.get(file);
+            String actual = scannedIDs.get(file);
+            if (removedFiles.contains(file)) {
+                continue;
+            } else if (actual.isEmpty()) {
+                result.put(file, "deleted");
+            } else if (!actual.equals(expected)) {
+                result.put(file, "modified");
+            }
+        }
+        for (String file : scannedFiles) {
+            if (!known.contains(file) || removedFiles.contains(file)) {
+                untracked.add(file);
+            }
+        }
+        return result;
+    }
+
+    // updates the last scan for a change to the working file or directory PATH
+    private void rescan(String path) {
+        // a directory, or what was one, stands for everything under it
+        scannedFiles.subSet(path + "/", path + "0").clear();
+        scannedFiles.remove(path);
+        scannedIDs.subMap(path + "/", path + "0").clear();
+        scannedIDs.remove(path);
+        File file = new File(path);
+        if (file.isDirectory() && !workingTree().isIgnored(path, true)) {
+            scannedFiles.addAll(workingTree().files(path));
+        } else if (file.isFile() && !workingTree().isIgnored(path, false)) {
+            scannedFiles.add(path);
+        }
     }
 
     /*
@@ -220,54 +657,47 @@ public class CommitTree implements Serializable {
                     System.out.println("Incorrect operands.");
                     return;
                 }
-                fileName = operands[1];
-                if (!head.getBlobs().containsKey(fileName)) {
+                fileName = pathOf(operands[1]);
+                String blobID = blobOf(head(), fileName);
+                if (blobID == null) {
                     System.out.println("File does not exist in that commit.");
                     return;
                 }
-                writeContentHelper(fileName, head.getBlobs().get(fileName));
+                writeContentHelper(fileName, blobID);
             } else if (operands.length == 3) { // CASE 2: checkout [commID] -- [filename]
                 if (!operands[1].equals("--")) {
                     System.out.println("Incorrect operands.");
                     return;
                 }
-                commitID = shortIDtoLongID(operands[0]);
-                fileName = operands[2];
-                if (!iDCommits.containsKey(commitID)) {
-                    System.out.println("No commit with that id exists.");
+                commitID = resolveCommit(operands[0]);
+                fileName = pathOf(operands[2]);
+                if (commitID == null) {
                     return;
-                } else if (!iDCommits.get(commitID).getBlobs().containsKey(fileName)) {
+                } else if (blobOf(getCommit(commitID), fileName) == null) {
                     System.out.println("File does not exist in that commit.");
                     return;
                 }
-                CommitObject curr = iDCommits.get(commitID);
-                writeContentHelper(fileName, curr.getBlobs().get(fileName));
+                CommitObject curr = getCommit(commitID);
+                writeContentHelper(fileName, blobOf(curr, fileName));
             }
         } else if (operands.length == 1) { // CASE 3: checkout [branch name]
             branchName = operands[0];
-            CommitObject givenBranchHead = branches.get(branchName);
-            CommitObject currBranchHead = branches.get(currentBranchName);
-            if (!branches.containsKey(branchName)) {
+            if (!isBranchName(branchName) || !refs.exists(branchName)) {
                 System.out.println("No such branch exists.");
                 return;
-            } else if (branchName.equals(currentBranchName)) {
+            }
+            CommitObject givenBranchHead = branchHead(branchName);
+            CommitObject currBranchHead = branchHead(currentBranchName);
+            if (branchName.equals(currentBranchName)) {
                 System.out.println("No need to checkout the current branch.");
                 return;
             } // TO-DO: else if (check for untracked branch in current branch)
-            if (checkUntrackedFiles(branches.get(branchName))) {
+            if (checkUntrackedFiles(branchHead(branchName))) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it or add it first.");
                 return;
             }
-            for (String file : givenBranchHead.getBlobs().keySet()) {
-                writeContentHelper(file, givenBranchHead.getBlobs().get(file));
-            }
-            for (String blob : currBranchHead.getBlobs().keySet()) {
-                if (!givenBranchHead.getBlobs().containsKey(blob)) {
-                    rm(blob);
-                }
-            }
-            stageArea.clear();
+            switchFiles(currBranchHead, givenBranchHead);
             head = givenBranchHead;
             currentBranchName = branchName;
             removedFiles.clear();
@@ -277,63 +707,61 @@ public class CommitTree implements Serializable {
 
     // Creates a new branch that points to the head, but does not switch to this branch
     public void branch(String name) {
-        if (branches.containsKey(name)) {
+        if (!isPlainName(name, "branch")) {
+            return;
+        } else if (refs.exists(name)) {
             System.out.println("A branch with that name already exists.");
             return;
         } else {
-            branches.put(name, head);
+            refs.put(name, head().getID());
         }
     }
 
     // Deletes branch, but not the commits that were in the branch or anything else
     public void rmBranch(String name) {
-        if (!branches.containsKey(name)) {
+        if (!isBranchName(name) || !refs.exists(name)) {
             System.out.println("A branch with that name does not exist.");
             return;
         } else if (name.equals(currentBranchName)) {
             System.out.println("Cannot remove the current branch");
             return;
         } else {
-            branches.remove(name);
+            refs.remove(name);
         }
     }
 
     // Checks out all files tracked by given commit, removing tracked files not present
     public void reset(String id) {
-        String commitID = shortIDtoLongID(id);
-        if (!iDCommits.containsKey(commitID)) {
-            System.out.println("No commit with that id exists.");
+        String commitID = resolveCommit(id);
+        if (commitID == null) {
             return;
         }
-        CommitObject givenCommit = iDCommits.get(commitID);
+        CommitObject givenCommit = getCommit(commitID);
 
         if (checkUntrackedFiles(givenCommit)) {
             System.out.println("There is an untracked file in the way; "
                     + "delete it or add it first.");
+            return;
         }
-        //for (String files : givenCommit.getBlobs().keySet()) {
-        //checks out all the files tracked by the given commit.
-        for (String givenFiles : givenCommit.getBlobs().keySet()) {
-            String[] input = new String[]{commitID, "--", givenFiles};
-            checkout(input);
-        }
+        // checks out the files tracked by the given commit, and removes the
+        // tracked files it does not have
+        switchFiles(head(), givenCommit);
         // Moves the current branch head pointer and
         // the head pointer to that commit node.
         head = givenCommit;
-        branches.replace(currentBranchName, givenCommit);
+        refs.put(currentBranchName, givenCommit.getID());
         // The staging area is cleared.
         stageArea.clear();
         removedFiles.clear();
-        untrackedFiles.clear();
     }
 
     // Check if merging fails
     private boolean mergeFailureCases(String givenBranchName) {
-        if (!stageArea.getBlobs().isEmpty() || !nonStagedFiles.isEmpty()) {
+        if (!stageArea.getBlobs().isEmpty() || !removedFiles.isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return true;
         }
-        if (!branches.containsKey(givenBranchName)) {
+        if (!isBranchName(givenBranchName) || !refs.exists(givenBranchName)) {
             System.out.println("A branch with that name does not exist.");
             return true;
         }
@@ -341,67 +769,33 @@ public class CommitTree implements Serializable {
             System.out.println("Cannot merge a branch with itself.");
             return true;
         }
-        if (checkUntrackedFiles(branches.get(givenBranchName))) {
+        if (checkUntrackedFiles(branchHead(givenBranchName))) {
             System.out.println("There is an untracked file in the way; "
                     + "delete it or add it first.");
             return true;
         }
-        CommitObject givenBranch = branches.get(givenBranchName);
-        CommitObject currBranch = branches.get(currentBranchName);
-        CommitObject givenSplitPoint = givenBranch;
-        CommitObject currSplitPoint = currBranch;
-        while (currSplitPoint != null) {
-            if (currSplitPoint.equals(givenBranch)) {
-                System.out.println("Given branch is an ancestor of the current branch.");
-                return true;
-            }
-            currSplitPoint = iDCommits.get(currSplitPoint.getParent());
+        String givenBranch = refs.get(givenBranchName);
+        String currBranch = refs.get(currentBranchName);
+        if (commitGraph().isAncestor(givenBranch, currBranch)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+            return true;
         }
-        while (givenSplitPoint != null) {
-            if (givenSplitPoint.equals(currBranch)) {
-                currentBranchName = givenBranchName;
-                System.out.println("Current branch fast-forwarded.");
-                return true;
-            }
-            givenSplitPoint = iDCommits.get(givenSplitPoint.getParent());
+        if (commitGraph().isAncestor(currBranch, givenBranch)) {
+            currentBranchName = givenBranchName;
+            System.out.println("Current branch fast-forwarded.");
+            return true;
         }
         return false;
     }
 
-    // Find split point of current and given branch
+    // Find split point of current and given branch: their nearest common
+    // ancestor, found from the commit graph. After criss-cross merges there
+    // can be several equally near ones; the commit graph orders them, and
+    // the first is used.
     private CommitObject findSplitPoint(String givenBranchName) {
-        CommitObject splitPoint = null;
-        // make a list of all ancestors of last commit in given branch
-        ArrayList<String> givenAncestors = new ArrayList<>();
-        CommitObject given = branches.get(givenBranchName);
-        while (given.getParent() != null) {
-            givenAncestors.add(given.getParent());
-            given = iDCommits.get(given.getParent());
-        }
-        // make a list of all ancestors of last commit in current branch
-        ArrayList<String> currAncestors = new ArrayList<>();
-        CommitObject curr = branches.get(currentBranchName);
-        while (curr.getParent() != null) {
-            currAncestors.add(curr.getParent());
-            curr = iDCommits.get(curr.getParent());
-        }
-        // using the larger ancestor list, find the first common ancestor
-        if (currAncestors.size() > givenAncestors.size()) {
-            for (String ancestor : givenAncestors) {
-                if (currAncestors.contains(ancestor)) {
-                    splitPoint = iDCommits.get(ancestor);
-                    break;
-                }
-            }
-        } else {
-            for (String ancestor : currAncestors) {
-                if (givenAncestors.contains(ancestor)) {
-                    splitPoint = iDCommits.get(ancestor);
-                    break;
-                }
-            }
-        }
-        return splitPoint;
+        List<String> bases = commitGraph().mergeBases(refs.get(currentBranchName),
+                refs.get(givenBranchName));
+        return bases.isEmpty() ? null : getCommit(bases.get(0));
     }
 
     // Merge files from given branch into the current branch
@@ -410,75 +804,41 @@ public class CommitTree implements Serializable {
             return;
         }
         CommitObject splitPoint = findSplitPoint(givenBranchName);
-        //CommitObject splitPoint = iDtoCommit(givenBranchName);
-        CommitObject currBranch = branches.get(currentBranchName);
-        CommitObject givenBranch = branches.get(givenBranchName);
-        int i  = 0; //this int is to check with the conflict will help.
-        HashMap<String, String> blobsGiven = branches.get(givenBranchName).getBlobs();
-        HashMap<String, String> blobsCurr = branches.get(currentBranchName).getBlobs();
-        HashMap<String, String> blobsSplitPoint = splitPoint.getBlobs();
-        for (String nameOfSplit: blobsSplitPoint.keySet()) {
-            String idOfSplit = blobsSplitPoint.get(nameOfSplit);
-            // Case 1 split have and only modified in the given branch;
-            if (blobsCurr.containsKey(nameOfSplit)
-                    && blobsCurr.containsValue(idOfSplit)) {
-                if (blobsGiven.containsKey(nameOfSplit)
-                        && !blobsGiven.get(nameOfSplit).equals(idOfSplit)) {
-                    // the following steps are creating a new file containing the content of
-                    // the modified file in the given branch and stage it
-                    String[] inp = {branches.get(givenBranchName).getID(), "--", nameOfSplit};
-                    checkout(inp);
-                    stageArea.add(nameOfSplit);
-                    continue;
-                } else {
-                    // case 5: file is absent in the given branch
-                    rm(nameOfSplit);
-                    removedFiles.clear();
-                    continue;
-                }
-            }
-            // Merge Conflict: file present in the split point
-            if (blobsCurr.containsKey(nameOfSplit) && blobsGiven.containsKey(nameOfSplit)) {
-                if (!blobsCurr.containsValue(idOfSplit) && !blobsGiven.containsValue(idOfSplit)
-                        && !blobsCurr.get(nameOfSplit).equals(blobsGiven.get(nameOfSplit))) {
-                    String givenID = blobsGiven.get(nameOfSplit);
-                    String currID = blobsCurr.get(nameOfSplit);
-                    mergeRewrite(nameOfSplit, givenID, currID);
-                    i = 1;
-                } else if (!blobsCurr.containsValue(idOfSplit)
-                        && blobsGiven.containsValue(idOfSplit)) {
-                    /*String givenID = blobsGiven.get(nameOfSplit);
-                    mergeRewrite(nameOfSplit, givenID, null);*/
-                    String currID = blobsCurr.get(nameOfSplit);
-                    mergeRewrite(nameOfSplit, null, currID);
-                    i = 1;
-                } else if (blobsCurr.containsValue(idOfSplit)
-                        && !blobsGiven.containsValue(idOfSplit)) {
-                    /*String currID = blobsCurr.get(nameOfSplit);
-                    mergeRewrite(nameOfSplit, null, currID);*/
-                    String givenID = blobsGiven.get(nameOfSplit);
-                    mergeRewrite(nameOfSplit, givenID, null);
-                }
-            }
-        }
-        for (String file: blobsGiven.keySet()) {
-            String givenId = blobsGiven.get(file);
-            //Merge Conflict: file not present in the split point
-            if (!blobsSplitPoint.containsKey(file) && blobsCurr.containsKey(file)
-                    && !blobsCurr.containsValue(givenId)) {
-                String currId = blobsCurr.get(file);
-                mergeRewrite(file, givenId, currId);
-                i = 1;
-            }
-            // case 4
-            if (!blobsSplitPoint.containsKey(file) && !blobsCurr.containsKey(file)) {
-                String[] inp = {branches.get(givenBranchName).getID(), "--", file};
-                checkout(inp);
-                stageArea.add(file);
+        CommitObject currBranch = branchHead(currentBranchName);
+        CommitObject givenBranch = branchHead(givenBranchName);
+        // every file either branch changed since the split point, and what to
+        // do with it; branches fetched from an unrelated repository share no
+        // split point, and are merged as if from the empty tree
+        String splitTree = splitPoint == null ? null : splitPoint.getTree();
+        List<MergePlan.Step> plan = MergePlan.plan(
+                trees.diff(splitTree, currBranch.getTree()),
+                trees.diff(splitTree, givenBranch.getTree()));
+        boolean conflict = false;
+        for (MergePlan.Step step : plan) {
+            switch (step.action) {
+                case TAKE_THEIRS:
+                case ADD:
+                    writeContentHelper(step.path, step.theirs);
+                    stageArea.add(step.path, step.theirs, blobs);
+                    break;
+                case DELETE:
+                    deleteHelper(step.path);
+                    removedFiles.add(step.path);
+                    break;
+                case CONFLICT:
+                    if (mergeRewrite(step.path, step.split, step.theirs, step.ours)) {
+                        conflict = true;
+                    }
+                    break;
+                default:
+                    // TAKE_OURS: the working file is already the current version
+                    break;
             }
         }
-        if (i == 0 && ((!splitPoint.getID().equals(currBranch.getID())
-                || !splitPoint.getID().equals(givenBranch.getID())))) {
+        // the merge commit, made here or by the commit that resolves the
+        // conflicts, records the given head as its second parent
+        stageArea.setMergeParent(givenBranch.getID());
+        if (!conflict) {
             commit("Merged " + currentBranchName + " with " + givenBranchName + ".");
         } else {
             System.out.println("Encountered a merge conflict.");
@@ -486,54 +846,89 @@ public class CommitTree implements Serializable {
     }
 
     // if merging has a conflict, rewrite the contents of the conflicted file
-    public void mergeRewrite(String fileName, String givenID, String currID) {
+    // Writes to FILENAME the merge of its versions GIVENID and CURRID, whose
+    // common version at the split point is SPLITID; each id is null where the
+    // file is absent. If both sides have the file, and no version is larger
+    // than MAX_LINE_MERGE, it is merged line by line against the split point
+    // version and, if no lines conflict, staged. Otherwise both whole
+    // versions are written in one conflict block.
+    // Returns true if the file was left with conflicts.
+    public boolean mergeRewrite(String fileName, String splitID, String givenID, String currID) {
         File rewrite = new File(fileName);
-        File givenFile = new File(".gitlet/blobs/" + givenID);
-        File currFile = new File(".gitlet/blobs/" + currID);
-        byte[] contentOfGiven = "".getBytes();
-        if (givenID != null) {
-            contentOfGiven = Utils.readContents(givenFile);
-        }
-        byte[] contentOfCurr = "".getBytes();
-        if (currID != null) {
-            contentOfCurr = Utils.readContents(currFile);
+        makeParents(fileName);
+        if (givenID != null && currID != null && blobs.size(givenID) <= MAX_LINE_MERGE
+                && blobs.size(currID) <= MAX_LINE_MERGE
+                && (splitID == null || blobs.size(splitID) <= MAX_LINE_MERGE)) {
+            byte[] base = splitID == null ? new byte[0] : blobs.read(splitID);
+            int conflicts;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(rewrite))) {
+                conflicts = Merge3.merge(base, blobs.read(currID), blobs.read(givenID), out);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            if (conflicts == 0) {
+                stageArea.add(fileName, index().blobID(fileName), blobs);
+            }
+            return conflicts > 0;
         }
-        ByteArrayOutputStream content = new ByteArrayOutputStream();
-        try {
-            content.write("<<<<<<< HEAD\n".getBytes());
+        // the whole versions are copied through, a block at a time
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(rewrite))) {
+            out.write(Merge3.START);
             if (currID != null) {
-                content.write(contentOfCurr);
+                try (InputStream in = blobs.open(currID)) {
+                    in.transferTo(out);
+                }
             }
-            content.write("=======\n".getBytes());
+            out.write(Merge3.MIDDLE);
             if (givenID != null) {
-                content.write(contentOfGiven);
+                try (InputStream in = blobs.open(givenID)) {
+                    in.transferTo(out);
+                }
             }
-            content.write(">>>>>>>\n".getBytes());
+            out.write(Merge3.END);
         } catch (IOException e) {
-            return;
+            throw new IllegalArgumentException(e.getMessage());
         }
-        byte[] contentOfRewrite = content.toByteArray();
-        Utils.writeContents(rewrite, contentOfRewrite);
+        return true;
     }
 
-    // converts the short version of an id to the corresponding whole id
+    // converts the short version of an id to the corresponding whole id,
+    // or returns null if no commit or more than one commit has such an id
     public String shortIDtoLongID(String id) {
-        for (String longID : iDCommits.keySet()) {
-            if (longID.substring(0, id.length()).equals(id)) {
-                return longID;
-            }
+        if (id.length() == 40 && commits.contains(id)) {
+            return id;
         }
-        return null;
+        List<String> matches = commitIndex().matches(id, 2, commits);
+        return matches.size() == 1 ? matches.get(0) : null;
     }
 
+    // Returns the whole id of the commit abbreviated as ID. If there is no
+    // such commit, or the abbreviation is ambiguous, prints so and returns null.
+    private String resolveCommit(String id) {
+        if (id.length() == 40 && commits.contains(id)) {
+            return id;
+        }
+        List<String> matches = commitIndex().matches(id, 2, commits);
+        if (matches.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            return null;
+        } else if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        return matches.get(0);
+    }
 
-    // returns true if there are untracked files in the directory
+
+    // returns true if a working file that is neither tracked by the head nor
+    // staged would be overwritten by checking out the commit CURR. Only the
+    // files CURR tracks and the head does not can be such files, and the
+    // tree diff lists exactly those as having no blob in the head.
     private boolean checkUntrackedFiles(CommitObject curr) {
-        File dir = new File(System.getProperty("user.dir"));
-        for (File f : dir.listFiles()) {
-            if (!f.getName().equals(".gitlet")
-                    && untrackedFiles.contains(f.getName())
-                    && curr.getBlobs().containsKey(f.getName())) {
+        for (Map.Entry<String, String[]> change : trees.diff(head().getTree(), curr.getTree()).entrySet()) {
+            String name = change.getKey();
+            if (change.getValue()[0] == null && !stageArea.getBlobs().containsKey(name)
+                    && new File(name).isFile()) {
                 return true;
             }
         }
@@ -541,11 +936,496 @@ public class CommitTree implements Serializable {
     }
 
     private void writeContentHelper(String file, String id) {
-        File rewrite = new File(file);
-        File older = new File(".gitlet/blobs/" + id);
-        byte[] bytes = Utils.readContents(older);
-        Utils.writeContents(rewrite, bytes);
+        makeParents(file);
+        blobs.copyTo(id, new File(file));
+        index().update(file, id);
+    }
+
+    // Makes the working files those of the commit TO, where they are those
+    // of the commit FROM, the head, except for the staged changes. Only the
+    // files the two trees disagree on, and the staged ones, are touched.
+    private void switchFiles(CommitObject from, CommitObject to) {
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : trees.diff(from.getTree(), to.getTree()).entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleteHelper(change.getKey());
+            } else {
+                writes.put(change.getKey(), change.getValue()[1]);
+            }
+        }
+        // staged additions and removals are dropped, so those files go back
+        // to their version in TO; files TO does not track are left alone
+        ArrayList<String> staged = new ArrayList<>(stageArea.getBlobs().keySet());
+        staged.addAll(removedFiles);
+        for (String file : staged) {
+            String id = blobOf(to, file);
+            if (id != null) {
+                writes.put(file, id);
+            }
+        }
+        writeFiles(writes);
+    }
+
+    // Writes each file of FILES, a map of file names to blob ids. Many files
+    // are written by a pool of at most WRITERS threads.
+    private void writeFiles(Map<String, String> files) {
+        for (String file : files.keySet()) {
+            makeParents(file);
+        }
+        if (files.size() < PARALLEL_WRITES) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                blobs.copyTo(file.getValue(), new File(file.getKey()));
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(WRITERS, Runtime.getRuntime().availableProcessors()));
+            try {
+                List<Future<?>> done = new ArrayList<>();
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    done.add(pool.submit(() -> blobs.copyTo(file.getValue(), new File(file.getKey()))));
+                }
+                for (Future<?> f : done) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("interrupted while writing files");
+            } catch (ExecutionException e) {
+                throw new IllegalArgumentException(e.getCause().getMessage());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        // the index is not shared between threads, so it is updated afterwards
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            index().update(file.getKey(), file.getValue());
+        }
+    }
+
+    // deletes the working file FILE, if there is one, and the directories
+    // the deletion leaves empty
+    private void deleteHelper(String file) {
+        File deleted = new File(file);
+        if (deleted.isFile()) {
+            deleted.delete();
+        }
+        index().remove(file);
+        for (File dir = deleted.getParentFile(); dir != null && dir.delete(); ) {
+            dir = dir.getParentFile();
+        }
+    }
 
+    // creates the directories above the working file FILE
+    private static void makeParents(String file) {
+        File parent = new File(file).getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+    }
 
+    // Moves the loose blobs into a pack. Blobs are grouped by a path they
+    // were committed under, found by diffing each commit against its parent.
+    public void repack() {
+        HashMap<String, String> pathOf = new HashMap<>();
+        for (String id : commits.ids()) {
+            CommitObject c = getCommit(id);
+            CommitObject parent = getCommit(c.getParent());
+            String parentTree = parent == null ? null : parent.getTree();
+            for (Map.Entry<String, String[]> change : trees.diff(parentTree, c.getTree()).entrySet()) {
+                if (change.getValue()[1] != null) {
+                    pathOf.put(change.getValue()[1], change.getKey());
+                }
+            }
+        }
+        for (Map.Entry<String, String> staged : stageArea.getBlobs().entrySet()) {
+            pathOf.put(staged.getValue(), staged.getKey());
+        }
+        int packed = blobs.repack(pathOf);
+        System.out.println("Packed " + packed + " blobs.");
+    }
+
+    // returns the file that holds the remotes, one "name path" line each
+    private File remotesFile() {
+        return Utils.join(gitletDir, "remotes");
+    }
+
+    // returns the path of the .gitlet directory of each remote, by name
+    private TreeMap<String, String> remotes() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (remotesFile().isFile()) {
+            String text = new String(Utils.readContents(remotesFile()), StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    result.put(line.substring(0, space), line.substring(space + 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    // Adds the remote NAME, the repository whose .gitlet directory is at
+    // PATH, or removes it if PATH is null. The remotes file is locked, read
+    // again and written through the journal, so that other processes
+    // changing the remotes at the same time lose nothing.
+    private void setRemote(String name, String path) {
+        try {
+            journal.lock(remotesFile());
+            TreeMap<String, String> remotes = remotes();
+            if (path != null && remotes.containsKey(name)) {
+                System.out.println("A remote with that name already exists.");
+                return;
+            } else if (path == null && !remotes.containsKey(name)) {
+                System.out.println("A remote with that name does not exist.");
+                return;
+            }
+            if (path == null) {
+                remotes.remove(name);
+            } else {
+                remotes.put(name, path);
+            }
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, String> remote : remotes.entrySet()) {
+                text.append(remote.getKey()).append(' ').append(remote.getValue()).append('\n');
+            }
+            journal.update(remotesFile(), text.toString().getBytes(StandardCharsets.UTF_8));
+            journal.commit();
+        } finally {
+            journal.release();
+        }
+    }
+
+    // Returns true if NAME, the name of a remote or of one of its branches
+    // as KIND says, names a single file under refs. Otherwise prints why
+    // not and returns false, since NAME/BRANCH would reach other refs.
+    private static boolean isPlainName(String name, String kind) {
+        if (!isPlain(name)) {
+            System.out.println("A " + kind + " name cannot contain '/' or '..'.");
+            return false;
+        }
+        return true;
+    }
+
+    // returns true if NAME is not empty and holds neither '/' nor '..'
+    private static boolean isPlain(String name) {
+        return !name.isEmpty() && !name.contains("/") && !name.contains("..");
+    }
+
+    // Returns true if NAME can name an existing branch: a plain name, or
+    // REMOTE/BRANCH for one fetched from a remote. Any other name could
+    // reach a file outside .gitlet/refs.
+    private static boolean isBranchName(String name) {
+        int slash = name.indexOf('/');
+        if (slash < 0) {
+            return isPlain(name);
+        }
+        return isPlain(name.substring(0, slash)) && isPlain(name.substring(slash + 1));
+    }
+
+    // Adds the remote NAME, the repository whose .gitlet directory is at PATH
+    public void addRemote(String name, String path) {
+        if (!isPlainName(name, "remote")) {
+            return;
+        }
+        setRemote(name, path);
+    }
+
+    // Removes the remote NAME; the branches fetched from it are kept
+    public void rmRemote(String name) {
+        setRemote(name, null);
+    }
+
+    // Opens the repository of the remote NAME, or prints why it cannot and
+    // returns null
+    private CommitTree openRemote(String name) {
+        if (!isPlainName(name, "remote")) {
+            return null;
+        }
+        String path = remotes().get(name);
+        if (path == null) {
+            System.out.println("A remote with that name does not exist.");
+            return null;
+        }
+        File dir = new File(path);
+        if (!dir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            return null;
+        }
+        if (isOldLayout(dir)) {
+            System.out.println(OLD_LAYOUT);
+            return null;
+        }
+        return open(dir);
+    }
+
+    // Copies the branch BRANCH of the remote NAME, and the commits, trees and
+    // blobs it needs that this repository lacks, into the branch NAME/BRANCH.
+    // Returns false, having printed why, if it could not.
+    public boolean fetch(String name, String branch) {
+        CommitTree remote = openRemote(name);
+        if (remote == null || !isPlainName(branch, "branch")) {
+            return false;
+        }
+        String tip = remote.refs.get(branch);
+        if (tip == null) {
+            System.out.println("That remote does not have that branch.");
+            return false;
+        }
+        remote.send(this, tip);
+        refs.put(name + "/" + branch, tip);
+        return true;
+    }
+
+    // Copies the head of the current branch, and the commits, trees and blobs
+    // it needs that the remote NAME lacks, to the remote, and points its
+    // branch BRANCH at it. The remote branch must be in the history of the
+    // head, or the remote would lose commits, and must not be the branch
+    // checked out there, whose working files would no longer match it.
+    public void push(String name, String branch) {
+        CommitTree remote = openRemote(name);
+        if (remote == null || !isPlainName(branch, "branch")) {
+            return;
+        }
+        if (branch.equals(remote.currentBranchName)) {
+            System.out.println("Cannot push to the branch checked out in the remote.");
+            return;
+        }
+        String theirs = remote.refs.get(branch);
+        String ours = head().getID();
+        if (theirs != null && !(commits.contains(theirs)
+                && commitGraph().isAncestor(theirs, ours))) {
+            System.out.println("Please pull down remote changes before pushing.");
+            return;
+        }
+        send(remote, ours);
+        remote.refs.put(branch, ours);
+        remote.save();
+    }
+
+    // Fetches the branch BRANCH of the remote NAME and merges it into the
+    // current branch. If the current branch is in the history of the fetched
+    // one, the current branch is moved up to it and its files checked out.
+    public void pull(String name, String branch) {
+        if (!fetch(name, branch)) {
+            return;
+        }
+        String tip = refs.get(name + "/" + branch);
+        String ours = head().getID();
+        if (!ours.equals(tip) && stageArea.getBlobs().isEmpty() && removedFiles.isEmpty()
+                && commitGraph().isAncestor(ours, tip)) {
+            CommitObject given = getCommit(tip);
+            if (checkUntrackedFiles(given)) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it or add it first.");
+                return;
+            }
+            switchFiles(head(), given);
+            head = given;
+            refs.put(currentBranchName, tip);
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        merge(name + "/" + branch);
+    }
+
+    // Sends to the repository OTHER the commit TIP, and every commit, tree and
+    // blob it needs that OTHER lacks, in one bundle. The two sides negotiate
+    // by walking the graph: the walk back from TIP stops at every commit
+    // OTHER has, and the walk down each new commit's tree at every tree
+    // OTHER has, since a stored commit or tree comes with everything below
+    // it. Nothing is sent if OTHER has TIP.
+    private void send(CommitTree other, String tip) {
+        // the commits OTHER lacks, parents first
+        List<CommitObject> newCommits = new ArrayList<>();
+        Set<String> entered = new HashSet<>();
+        Set<String> done = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(tip);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (done.contains(id) || other.commits.contains(id)) {
+                stack.pop();
+            } else if (entered.add(id)) {
+                CommitObject c = getCommit(id);
+                for (String parent : new String[] {c.getParent(), c.getSecondParent()}) {
+                    if (parent != null && !done.contains(parent)) {
+                        stack.push(parent);
+                    }
+                }
+            } else {
+                stack.pop();
+                done.add(id);
+                newCommits.add(getCommit(id));
+            }
+        }
+        if (newCommits.isEmpty()) {
+            return;
+        }
+        // the trees and blobs of the new commits that OTHER lacks
+        List<TreeObject> newTrees = new ArrayList<>();
+        List<String> newBlobs = new ArrayList<>();
+        Set<String> seenTrees = new HashSet<>();
+        Set<String> seenBlobs = new HashSet<>();
+        for (CommitObject c : newCommits) {
+            stack.push(c.getTree());
+            while (!stack.isEmpty()) {
+                String id = stack.pop();
+                if (!seenTrees.add(id) || other.trees.contains(id)) {
+                    continue;
+                }
+                TreeObject tree = trees.get(id);
+                newTrees.add(tree);
+                stack.addAll(tree.getTrees().values());
+                stack.addAll(tree.getShards().values());
+                for (String blob : tree.getBlobs().values()) {
+                    if (seenBlobs.add(blob) && !other.blobs.contains(blob)) {
+                        newBlobs.add(blob);
+                    }
+                }
+            }
+        }
+        // a tree is found before the trees below it; they are sent first
+        Collections.reverse(newTrees);
+        File bundle = null;
+        try {
+            bundle = File.createTempFile("tmp-bundle-", null, other.gitletDir);
+            Bundle.write(bundle, newBlobs, blobs, newTrees, newCommits);
+            Bundle.read(bundle, other.blobs, other.trees, other::addReceived);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (bundle != null) {
+                bundle.delete();
+            }
+        }
+    }
+
+    // stores the commit C, received from another repository, and indexes it
+    private void addReceived(CommitObject c) {
+        // the message index is made before the commit is stored, or it
+        // would also find it among the stored commits
+        messageIndex().add(c.getID(), c.getMessage());
+        commits.put(c.getID(), c);
+        iDCommits.put(c.getID(), c);
+        commitIndex().add(c.getID());
+        commitGraph().add(c);
+    }
+
+    // Checks the repository for damage: hashes every commit, tree and blob
+    // again, in parallel, and checks that every commit, tree and blob the
+    // branches, the staging area, the commits and the trees refer to is
+    // stored. Prints each problem found, then the number of objects and
+    // bytes read and how fast they were read.
+    public void fsck() {
+        long start = System.nanoTime();
+        Queue<String> problems = new ConcurrentLinkedQueue<>();
+        AtomicLong read = new AtomicLong();
+        // the objects referred to, each mapped to one of the objects referring to it
+        Map<String, String> commitRefs = new ConcurrentHashMap<>();
+        Map<String, String> treeRefs = new ConcurrentHashMap<>();
+        Map<String, String> blobRefs = new ConcurrentHashMap<>();
+        for (String name : refs.names()) {
+            commitRefs.putIfAbsent(refs.get(name), "branch " + name);
+        }
+        if (stageArea.getMergeParent() != null) {
+            commitRefs.putIfAbsent(stageArea.getMergeParent(), "the staging area");
+        }
+        for (Map.Entry<String, String> staged : stageArea.getBlobs().entrySet()) {
+            blobRefs.putIfAbsent(staged.getValue(), "the staging area");
+        }
+        int commitCount = commits.verify(CommitObject.class, (id, c) -> {
+            if (!id.equals(c.getID()) || !id.equals(c.hash())) {
+                problems.add("corrupt commit " + id);
+                return;
+            }
+            treeRefs.putIfAbsent(c.getTree(), "commit " + id);
+            if (c.getParent() != null) {
+                commitRefs.putIfAbsent(c.getParent(), "commit " + id);
+            }
+            if (c.getSecondParent() != null) {
+                commitRefs.putIfAbsent(c.getSecondParent(), "commit " + id);
+            }
+        }, id -> problems.add("corrupt commit " + id), read);
+        int treeCount = trees.verify((id, t) -> {
+            for (String blob : t.getBlobs().values()) {
+                blobRefs.putIfAbsent(blob, "tree " + id);
+            }
+            for (String child : t.getTrees().values()) {
+                treeRefs.putIfAbsent(child, "tree " + id);
+            }
+            for (String shard : t.getShards().values()) {
+                treeRefs.putIfAbsent(shard, "tree " + id);
+            }
+        }, id -> problems.add("corrupt tree " + id), read);
+        int blobCount = blobs.verify(problems::add, read);
+        commitRefs.entrySet().parallelStream().filter(e -> !commits.contains(e.getKey()))
+                .forEach(e -> problems.add("missing commit " + e.getKey() + " (from " + e.getValue() + ")"));
+        treeRefs.entrySet().parallelStream().filter(e -> !trees.contains(e.getKey()))
+                .forEach(e -> problems.add("missing tree " + e.getKey() + " (from " + e.getValue() + ")"));
+        blobRefs.entrySet().parallelStream().filter(e -> !blobs.contains(e.getKey()))
+                .forEach(e -> problems.add("missing blob " + e.getKey() + " (from " + e.getValue() + ")"));
+        List<String> sorted = new ArrayList<>(problems);
+        sorted.sort(null);
+        for (String problem : sorted) {
+            System.out.println(problem);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Checked %d commits, %d trees and %d blobs: %d bytes in %.2f seconds (%.1f MB/s).%n",
+                commitCount, treeCount, blobCount, read.get(), seconds,
+                read.get() / Math.max(seconds, 1e-3) / (1 << 20));
+        if (sorted.isEmpty()) {
+            System.out.println("No problems found.");
+        } else {
+            System.out.println(sorted.size() + (sorted.size() == 1 ? " problem" : " problems") + " found.");
+        }
+    }
+
+    // Deletes the commits, trees and blobs that no branch and nothing staged
+    // can reach, of those written more than GRACE seconds ago; younger ones
+    // may belong to a command still running. The commits, and then the
+    // trees, are marked in parallel, a level at a time. The indexes of the
+    // commits are rebuilt when next needed if any commit was deleted. GRACE
+    // is not negative; one too large for milliseconds keeps every object.
+    public void gc(long grace) {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(grace);
+        journal.flush();
+        Set<String> liveCommits = ConcurrentHashMap.newKeySet();
+        Set<String> rootTrees = ConcurrentHashMap.newKeySet();
+        List<String> level = new ArrayList<>();
+        for (String name : refs.names()) {
+            level.add(refs.get(name));
+        }
+        if (stageArea.getMergeParent() != null) {
+            level.add(stageArea.getMergeParent());
+        }
+        level.removeIf(id -> !liveCommits.add(id));
+        while (!level.isEmpty()) {
+            level = level.parallelStream().flatMap(id -> {
+                CommitObject c = commits.get(id, CommitObject.class);
+                if (c == null) {
+                    throw new IllegalArgumentException("missing commit " + id);
+                }
+                rootTrees.add(c.getTree());
+                return Arrays.stream(new String[] {c.getParent(), c.getSecondParent()});
+            }).filter(id -> id != null && liveCommits.add(id)).collect(Collectors.toList());
+        }
+        Set<String> liveTrees = ConcurrentHashMap.newKeySet();
+        Set<String> liveBlobs = ConcurrentHashMap.newKeySet();
+        liveBlobs.addAll(stageArea.getBlobs().values());
+        trees.mark(rootTrees, liveTrees, liveBlobs);
+        AtomicLong freed = new AtomicLong();
+        int deletedCommits = commits.sweep(liveCommits, cutoff, freed);
+        int removed = deletedCommits + trees.sweep(liveTrees, cutoff, freed)
+                + blobs.sweep(liveBlobs, cutoff, freed);
+        if (deletedCommits > 0) {
+            iDCommits.keySet().retainAll(liveCommits);
+            for (String name : new String[] {"commit-index", "commit-graph", "messages", "message-index"}) {
+                Utils.join(gitletDir, name).delete();
+            }
+            commitIndex = null;
+            commitGraph = null;
+            messageIndex = null;
+        }
+        System.out.println("Removed " + removed + " objects, freeing " + freed.get() + " bytes.");
     }
 }
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/* Serves gitlet commands over the Unix domain socket .gitlet/daemon.sock,
+   keeping the Commit Tree and its caches of commits and trees in memory
+   between commands. Main forwards its arguments to a running daemon and
+   prints the output it gets back, so a command costs one round trip instead
+   of starting a JVM and reading the repository again.
+
+   Before each command the daemon compares the refs, the staging area, the
+   index and the packs with what it saw after the previous one; if another
+   process changed any of them, it re-reads that state first.
+
+   Started with --watch, the daemon also watches the working directory (see
+   Watcher), so that status looks only at the files changed since it last
+   ran instead of listing and checking the whole tree.
+
+   request  := int(argc) (int(length) utf-8-bytes)*
+   response := int(length) output-bytes                                     */
+class Daemon {
+
+    // name of the socket in the gitlet directory
+    private static final String SOCKET = "daemon.sock";
+
+    // directory of the repository metadata
+    private final File gitletDir;
+    // the Commit Tree kept in memory, or null if it must be read again
+    private CommitTree tree;
+    // state of the repository files after the previous command
+    private String fingerprint;
+    // watcher of the working directory, or null
+    private final Watcher watcher;
+
+    // Constructor
+    private Daemon(File gitletDir, Watcher watcher) {
+        this.gitletDir = gitletDir;
+        this.watcher = watcher;
+    }
+
+    // Sends ARGS to the daemon serving GITLETDIR and prints its output.
+    // Returns false if no daemon is listening.
+    static boolean forward(File gitletDir, String[] args) {
+        File socket = Utils.join(gitletDir, SOCKET);
+        if (!socket.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeBytes(out, arg.getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] output = readBytes(in);
+            System.out.write(output);
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    // Serves commands for the repository in GITLETDIR until asked to stop,
+    // watching the working directory if WATCH
+    static void serve(File gitletDir, boolean watch) {
+        File socket = Utils.join(gitletDir, SOCKET);
+        if (socket.exists()) {
+            if (forward(gitletDir, new String[] {"daemon", "ping"})) {
+                System.out.println("A gitlet daemon is already running.");
+                return;
+            }
+            socket.delete();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            Watcher watcher = null;
+            if (watch) {
+                watcher = Watcher.start(gitletDir.getAbsoluteFile().getParentFile());
+                if (watcher == null) {
+                    System.out.println("Could not watch the working directory; "
+                            + "status will scan it.");
+                }
+            }
+            Daemon daemon = new Daemon(gitletDir, watcher);
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = daemon.handle(client);
+                } catch (IOException excp) {
+                    // the client went away; serve the next one
+                }
+            }
+            if (watcher != null) {
+                watcher.stop();
+            }
+        } catch (IOException excp) {
+            System.out.println("Could not start the gitlet daemon: " + excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    // Runs one request from CLIENT. Returns false if the daemon should stop.
+    private boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+        }
+        boolean stop = false;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (args.length == 2 && args[0].equals("daemon")) {
+            stop = args[1].equals("stop");
+            if (stop) {
+                output.write("Stopped the gitlet daemon.\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            run(args, output);
+        }
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+        writeBytes(out, output.toByteArray());
+        out.flush();
+        return !stop;
+    }
+
+    // runs the command ARGS, writing what it prints to OUTPUT
+    private void run(String[] args, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out;
+        PrintStream capture = new PrintStream(output, true, StandardCharsets.UTF_8);
+        System.setOut(capture);
+        try {
+            if (tree != null && !fingerprint().equals(fingerprint)) {
+                tree.refresh();
+            } else if (tree == null) {
+                tree = CommitTree.open(gitletDir);
+            }
+            tree.setWatcher(watcher);
+            Main.useCommitTree(tree);
+            Main.run(args);
+            tree = Main.getCommitTree();
+        } catch (RuntimeException excp) {
+            // the state in memory may be half updated; read it again next time
+            capture.println("Error: " + excp.getMessage());
+            tree = null;
+        } finally {
+            System.setOut(stdout);
+            Main.useCommitTree(null);
+        }
+        fingerprint = fingerprint();
+    }
+
+    // Returns a summary of the repository state other processes may change:
+    // the contents of HEAD and the refs, and the file attributes of the
+    // staging area, the index, the packs and the ignore file, whose patterns
+    // the Commit Tree keeps with its working tree.
+    private String fingerprint() {
+        StringBuilder result = new StringBuilder();
+        File head = Utils.join(gitletDir, "HEAD");
+        if (head.isFile()) {
+            result.append(new String(Utils.readContents(head), StandardCharsets.UTF_8));
+        }
+        appendRefs(Utils.join(gitletDir, "refs"), "", result);
+        appendStat(Utils.join(gitletDir, "stage"), result);
+        appendStat(Utils.join(gitletDir, "index"), result);
+        appendStat(new File(gitletDir.getAbsoluteFile().getParentFile(), WorkingTree.IGNORE_FILE),
+                result);
+        File packDir = Utils.join(gitletDir, "packs");
+        List<String> packs = Utils.plainFilenamesIn(packDir);
+        if (packs != null) {
+            for (String pack : packs) {
+                result.append('\n').append(pack);
+            }
+        }
+        return result.toString();
+    }
+
+    // appends the name and contents of every ref below DIR to RESULT
+    private static void appendRefs(File dir, String prefix, StringBuilder result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                appendRefs(file, prefix + file.getName() + "/", result);
+            } else {
+                result.append('\n').append(prefix).append(file.getName()).append(' ')
+                        .append(new String(Utils.readContents(file), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // appends the size, modification time and identity of FILE to RESULT
+    private static void appendStat(File file, StringBuilder result) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            result.append('\n').append(attrs.size()).append(' ')
+                    .append(attrs.lastModifiedTime()).append(' ').append(attrs.fileKey());
+        } catch (IOException excp) {
+            result.append("\n-");
+        }
+    }
+
+    // writes BYTES to OUT, preceded by their length
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // reads bytes written by writeBytes from IN
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
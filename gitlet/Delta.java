@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/* Byte-level deltas between two versions of a file. A delta is a list of
+   instructions that rebuild the target from the base: COPY takes a range of
+   the base and INSERT carries new bytes literally. All numbers are written
+   as variable-length unsigned integers.
+
+   delta := varint(target length) instruction*
+   instruction := COPY varint(offset) varint(length)
+                | INSERT varint(length) byte*                              */
+class Delta {
+
+    // instruction codes
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+    // length of the blocks of the base that are indexed for matching
+    private static final int BLOCK = 16;
+    // number of buckets of the block index, a power of two
+    private static final int MIN_BUCKETS = 1 << 10;
+    // most candidate blocks tried per position, bounding repetitive input
+    private static final int MAX_PROBES = 64;
+
+    /* Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] compute(byte[] base, byte[] target) {
+        // index the start of every BLOCK-aligned block of the base; chains
+        // link blocks whose hashes fall in the same bucket
+        int blocks = base.length / BLOCK;
+        int buckets = Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(blocks, 1)) << 1);
+        int[] heads = new int[buckets];
+        int[] next = new int[blocks];
+        Arrays.fill(heads, -1);
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            int bucket = hash(base, b * BLOCK) & (buckets - 1);
+            next[b] = heads[bucket];
+            heads[bucket] = b;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length && blocks > 0) {
+            int bestStart = -1;
+            int bestLength = 0;
+            int bucket = hash(target, i) & (buckets - 1);
+            int probes = 0;
+            for (int b = heads[bucket]; b >= 0 && probes < MAX_PROBES; b = next[b]) {
+                probes += 1;
+                int start = b * BLOCK;
+                int length = 0;
+                while (start + length < base.length && i + length < target.length
+                        && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+                if (length > bestLength) {
+                    bestStart = start;
+                    bestLength = length;
+                }
+            }
+            if (bestLength < BLOCK) {
+                i += 1;
+                continue;
+            }
+            // extend the match backwards into the pending literal bytes
+            while (bestStart > 0 && i > insertStart
+                    && base[bestStart - 1] == target[i - 1]) {
+                bestStart -= 1;
+                bestLength += 1;
+                i -= 1;
+            }
+            writeInsert(out, target, insertStart, i);
+            out.write(COPY);
+            writeVarint(out, bestStart);
+            writeVarint(out, bestLength);
+            i += bestLength;
+            insertStart = i;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /* Returns the result of applying DELTA to BASE. Throws
+       IllegalArgumentException if DELTA is malformed. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        byte[] result = new byte[readVarint(delta, pos)];
+        int filled = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, filled, length);
+                filled += length;
+            } else if (op == INSERT) {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, filled, length);
+                pos[0] += length;
+                filled += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (filled != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /* Returns a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * 31 + data[k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /* Writes an INSERT of DATA[FROM..TO) to OUT, if that range is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /* Writes the non-negative VALUE to OUT, seven bits at a time. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /* Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* Myers' O(ND) difference algorithm in its linear-space form. Sequences are
+   arrays of ints, normally line numbers from a LineTable, so comparing two
+   elements is one int comparison. Common prefixes and suffixes are matched
+   directly; what remains is split at a point on an optimal edit path, found
+   by searching forward from its start and backward from its end at once,
+   and each half is diffed in turn. Only the two diagonal arrays of the
+   search are allocated, so memory stays linear in the input.
+
+   Since the search costs time in proportion to the number of differences,
+   long ranges are first cut at anchors, as in patience diff: elements that
+   occur exactly once in each range, taken in an order common to both. */
+class Diff {
+
+    // ranges with more elements than this, in total, are cut at anchors first
+    private static final int ANCHOR_THRESHOLD = 512;
+
+    // Returns, for every element of A, the index of the element of B it is
+    // paired with in a common subsequence of A and B, or -1. The subsequence
+    // is a longest one unless anchors were used.
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        compare(a, 0, a.length, b, 0, b.length, result);
+        return result;
+    }
+
+    // pairs the common elements of A[ALO..AHI) and B[BLO..BHI) in RESULT
+    private static void compare(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int[] result) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        if ((aHi - aLo) + (bHi - bLo) > ANCHOR_THRESHOLD
+                && anchor(a, aLo, aHi, b, bLo, bHi, result)) {
+            return;
+        }
+        long split = split(a, aLo, aHi, b, bLo, bHi);
+        if (split < 0) {
+            // nothing in common
+            return;
+        }
+        int x = (int) (split >>> 32);
+        int y = (int) split;
+        compare(a, aLo, aLo + x, b, bLo, bLo + y, result);
+        compare(a, aLo + x, aHi, b, bLo + y, bHi, result);
+    }
+
+    // Pairs the elements of A[ALO..AHI) and B[BLO..BHI) that occur once in
+    // each, keeping the longest run of them in the same order in both, and
+    // diffs the ranges between them. Returns false if there are none.
+    private static boolean anchor(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int[] result) {
+        // for each element: occurrences in A, its index in A, occurrences in B, its index in B
+        HashMap<Integer, int[]> counts = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.computeIfAbsent(a[i], k -> new int[4]);
+            c[0] += 1;
+            c[1] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            int[] c = counts.get(b[j]);
+            if (c != null) {
+                c[2] += 1;
+                c[3] = j;
+            }
+        }
+        // indexes in B of the unique common elements, in the order of A
+        int[] inA = new int[aHi - aLo];
+        int[] inB = new int[aHi - aLo];
+        int unique = 0;
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.get(a[i]);
+            if (c[0] == 1 && c[2] == 1) {
+                inA[unique] = i;
+                inB[unique] = c[3];
+                unique += 1;
+            }
+        }
+        if (unique == 0) {
+            return false;
+        }
+        // longest increasing run of INB, by patience sorting
+        int[] tails = new int[unique];
+        int[] previous = new int[unique];
+        int piles = 0;
+        for (int k = 0; k < unique; k += 1) {
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (inB[tails[mid]] < inB[k]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == piles) {
+                piles += 1;
+            }
+        }
+        int[] anchors = new int[piles];
+        for (int k = tails[piles - 1], p = piles - 1; k >= 0; k = previous[k], p -= 1) {
+            anchors[p] = k;
+        }
+        int prevA = aLo;
+        int prevB = bLo;
+        for (int k : anchors) {
+            compare(a, prevA, inA[k], b, prevB, inB[k], result);
+            result[inA[k]] = inB[k];
+            prevA = inA[k] + 1;
+            prevB = inB[k] + 1;
+        }
+        compare(a, prevA, aHi, b, prevB, bHi, result);
+        return true;
+    }
+
+    // Returns a point (x, y), packed as x << 32 | y, on an optimal edit path
+    // between A[ALO..AHI) and B[BLO..BHI), where the forward and the backward
+    // searches meet, or -1 if the two have no element in common.
+    private static long split(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        int length = 2 * maxD + 3;
+        // furthest x reached on each diagonal k = x - y, searching forward
+        int[] forward = new int[length];
+        // furthest distance from the end reached on each diagonal, searching backward
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // the searches meet in the forward pass if delta is odd
+        boolean front = (delta & 1) != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int i = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[i - 1] < forward[i + 1])) {
+                    x1 = forward[i + 1];
+                } else {
+                    x1 = forward[i - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[i] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int j = offset + delta - k1;
+                    if (j >= 0 && j < length && backward[j] != -1 && x1 >= n - backward[j]) {
+                        return ((long) x1 << 32) | y1;
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int i = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[i - 1] < backward[i + 1])) {
+                    x2 = backward[i + 1];
+                } else {
+                    x2 = backward[i - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[i] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int j = offset + delta - k2;
+                    if (j >= 0 && j < length && forward[j] != -1) {
+                        int x1 = forward[j];
+                        int y1 = offset + x1 - j;
+                        if (x1 >= n - x2) {
+                            return ((long) x1 << 32) | y1;
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,429 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/* The write-ahead journal of a repository, which makes each command's
+   changes durable with few fsyncs and brings the repository back to a
+   consistent state after a crash.
+
+   A command's writes are grouped into a transaction. Immutable objects
+   (commits, trees and small blobs) are written to their files at once,
+   since a stray object does no harm, and logged. Each is written to a
+   temporary file in the same directory and renamed into place, so other
+   processes never read a partly written object. Objects are not forced one
+   by one: recovery puts back any logged object a crash left torn, and the
+   objects past MAX_LOGGED, which are not logged, are forced together by
+   commit(). Mutable files (the refs, HEAD and the staging area) are only
+   logged. commit() first forces the files written outside the journal,
+   such as large blobs and their chunks, and the unlogged objects. Then it
+   appends the transaction to .gitlet/journal and forces the journal once. Only then does it put the mutable files in place, each through a
+   temporary file and an atomic rename. A ref on disk therefore never points
+   at a commit that a crash could lose.
+
+   journal     := transaction*
+   transaction := int(MAGIC) int(length) entry* int(CRC32 of the entries)
+   entry       := UTF(path under .gitlet) byte(1 if mutable, else 0)
+                  int(length, -1 to delete) bytes
+
+   recover() runs when a repository is opened. It puts the last logged
+   version of every path back if the file does not hold it, and drops a
+   transaction cut short by a crash. Files put in place since the last
+   checkpoint may not have reached the disk, so once the journal grows
+   past CHECKPOINT, every file it names is forced and the journal is
+   emptied. Other files, such as the indexes, can be rebuilt from the
+   objects and are not journaled.
+
+   Several processes may share a repository. Objects are written without
+   locks, since writing one twice writes the same bytes. Each mutable file
+   has a lock file under .gitlet/locks, taken with lock() to compare it
+   with what the process read before updating it, and held until commit()
+   has put the update in place. Appending to the journal, recovering and
+   checkpointing hold the lock of the journal itself, which only covers
+   the append, not the fsync that follows. Recovery leaves alone a file
+   whose lock another process holds: that process will put it in place. */
+class Journal {
+
+    // magic number starting each transaction
+    private static final int MAGIC = 0x474a5458;
+    // size of the journal above which it is checkpointed
+    private static final int CHECKPOINT = 256 << 10;
+    // most bytes of objects logged in one transaction; later objects of a
+    // larger one are forced by commit() instead
+    private static final int MAX_LOGGED = 16 << 20;
+    // length of an entry that deletes its file
+    private static final int DELETED = -1;
+    // name of the lock file of the journal
+    private static final String JOURNAL_LOCK = "journal";
+    // start of the names of temporary files, which the stores skip
+    static final String TEMP_PREFIX = "tmp-";
+
+    // the repository directory, the journal file and the lock files
+    private final File gitletDir;
+    private final File file;
+    private final File locksDir;
+    // the locks held, by the path of the file they guard
+    private final Map<String, FileChannel> held = new TreeMap<>();
+    // the entries of the transaction, by path; a null value deletes the file
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+    // the mutable files logged in the transaction, put in place by commit()
+    private final Map<File, byte[]> updates = new LinkedHashMap<>();
+    // files written outside the journal, forced by commit()
+    private final Set<File> unsynced = new LinkedHashSet<>();
+    // bytes of objects logged in the transaction
+    private long logged;
+
+    // Constructor
+    Journal(File gitletDir) {
+        this.gitletDir = gitletDir;
+        file = Utils.join(gitletDir, "journal");
+        locksDir = Utils.join(gitletDir, "locks");
+    }
+
+    // Writes the immutable object file TARGET with BYTES now, logging it, or
+    // leaving it for commit() to force once the transaction logs too much.
+    synchronized void write(File target, byte[] bytes) {
+        File temp = null;
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, null, target.getParentFile());
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        if (logged + bytes.length > MAX_LOGGED) {
+            unsynced.add(target);
+        } else {
+            entries.put(pathOf(target), bytes);
+            logged += bytes.length;
+        }
+    }
+
+    // Logs BYTES as the new contents of the mutable file TARGET, or its
+    // deletion if BYTES is null; commit() puts it in place.
+    synchronized void update(File target, byte[] bytes) {
+        entries.put(pathOf(target), bytes);
+        updates.put(target, bytes);
+    }
+
+    // records that TARGET was written outside the journal; commit() forces it
+    synchronized void sync(File target) {
+        unsynced.add(target);
+    }
+
+    // returns the path of TARGET under the repository directory
+    private String pathOf(File target) {
+        return gitletDir.toPath().relativize(target.toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    // returns an open channel of the lock file guarding PATH
+    private FileChannel lockChannel(String path) throws IOException {
+        File lockFile = Utils.join(locksDir, path);
+        lockFile.getParentFile().mkdirs();
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+    }
+
+    // Locks the mutable file TARGET against other processes, waiting for
+    // any that holds it. The lock is held until commit() or release().
+    synchronized void lock(File target) {
+        String path = pathOf(target);
+        if (held.containsKey(path)) {
+            return;
+        }
+        try {
+            FileChannel channel = lockChannel(path);
+            channel.lock();
+            held.put(path, channel);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // releases every lock taken by lock()
+    synchronized void release() {
+        for (FileChannel channel : held.values()) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                // closing the channel releases its lock either way
+            }
+        }
+        held.clear();
+    }
+
+    // Makes the transaction durable and puts its mutable files in place.
+    // The locks taken by lock() are released at the end.
+    synchronized void commit() {
+        if (entries.isEmpty() && unsynced.isEmpty()) {
+            release();
+            return;
+        }
+        try {
+            Set<File> dirs = new LinkedHashSet<>();
+            for (File f : unsynced) {
+                if (f.exists()) {
+                    force(f);
+                    dirs.add(f.getParentFile());
+                }
+            }
+            for (File dir : dirs) {
+                force(dir);
+            }
+            unsynced.clear();
+            if (!entries.isEmpty()) {
+                append(encode(entries, updates.keySet()));
+            }
+            for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+                apply(update.getKey(), update.getValue());
+            }
+            entries.clear();
+            updates.clear();
+            logged = 0;
+            // the updates are in place; the checkpoint need not hold up others
+            release();
+            if (file.length() > CHECKPOINT) {
+                checkpoint();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            release();
+        }
+    }
+
+    // returns the transaction holding ENTRIES, of which the files MUTABLE
+    // are mutable
+    private byte[] encode(Map<String, byte[]> entries, Set<File> mutable) throws IOException {
+        Set<String> mutablePaths = new HashSet<>();
+        for (File f : mutable) {
+            mutablePaths.add(pathOf(f));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeByte(mutablePaths.contains(entry.getKey()) ? 1 : 0);
+            byte[] bytes = entry.getValue();
+            out.writeInt(bytes == null ? DELETED : bytes.length);
+            if (bytes != null) {
+                out.write(bytes);
+            }
+        }
+        out.flush();
+        byte[] payload = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer result = ByteBuffer.allocate(payload.length + 12);
+        result.putInt(MAGIC).putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        return result.array();
+    }
+
+    // appends TRANSACTION to the journal and forces it to disk; other
+    // processes may append while this one waits for the disk
+    private void append(byte[] transaction) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            try (FileChannel lock = lockChannel(JOURNAL_LOCK)) {
+                lock.lock();
+                ByteBuffer buffer = ByteBuffer.wrap(transaction);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+    }
+
+    // Puts BYTES in place as the contents of TARGET, or deletes it if null.
+    // The temporary file is made at the top of the repository directory, so
+    // that a crash cannot leave it among the refs.
+    private void apply(File target, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            Files.deleteIfExists(target.toPath());
+            return;
+        }
+        target.getParentFile().mkdirs();
+        File temp = File.createTempFile(TEMP_PREFIX, null, gitletDir);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // Returns the last logged contents of each path of the complete
+    // transactions of the journal, and cuts off any incomplete one. The
+    // paths of mutable files are added to MUTABLE. The caller holds the
+    // lock of the journal.
+    private Map<String, byte[]> read(Set<String> mutable) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return result;
+        }
+        byte[] journal = Files.readAllBytes(file.toPath());
+        ByteBuffer in = ByteBuffer.wrap(journal);
+        int valid = 0;
+        while (in.remaining() >= 12 && in.getInt(valid) == MAGIC) {
+            int length = in.getInt(valid + 4);
+            if (length < 0 || length > in.capacity() - valid - 12) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(journal, valid + 8, length);
+            if ((int) crc.getValue() != in.getInt(valid + 8 + length)) {
+                break;
+            }
+            decode(Arrays.copyOfRange(journal, valid + 8, valid + 8 + length), result, mutable);
+            valid += length + 12;
+            in.position(valid);
+        }
+        if (valid < journal.length) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(valid);
+            }
+        }
+        return result;
+    }
+
+    // adds the entries of the transaction PAYLOAD to ENTRIES, and the paths
+    // of its mutable files to MUTABLE
+    private static void decode(byte[] payload, Map<String, byte[]> entries,
+                               Set<String> mutable) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            while (true) {
+                String path = in.readUTF();
+                if (in.readByte() != 0) {
+                    mutable.add(path);
+                }
+                int length = in.readInt();
+                byte[] bytes = null;
+                if (length != DELETED) {
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                }
+                entries.remove(path);
+                entries.put(path, bytes);
+            }
+        } catch (EOFException excp) {
+            // the end of the transaction
+        }
+    }
+
+    // Puts back the last logged version of every file whose contents differ
+    // from it, as they may after a crash.
+    synchronized void recover() {
+        if (!file.isFile() || file.length() == 0) {
+            return;
+        }
+        try (FileChannel lock = lockChannel(JOURNAL_LOCK)) {
+            lock.lock();
+            Set<String> mutable = new HashSet<>();
+            for (Map.Entry<String, byte[]> entry : read(mutable).entrySet()) {
+                File target = Utils.join(gitletDir, entry.getKey());
+                byte[] bytes = entry.getValue();
+                if (holds(target, bytes)) {
+                    continue;
+                }
+                if (!mutable.contains(entry.getKey())) {
+                    apply(target, bytes);
+                    continue;
+                }
+                try (FileChannel fileLock = lockChannel(entry.getKey())) {
+                    if (fileLock.tryLock() != null && !holds(target, bytes)) {
+                        apply(target, bytes);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // returns true if TARGET holds BYTES, or does not exist if BYTES is null
+    private static boolean holds(File target, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            return !target.exists();
+        }
+        return target.isFile() && target.length() == bytes.length
+                && Arrays.equals(Files.readAllBytes(target.toPath()), bytes);
+    }
+
+    // Empties the journal, once the files it names are on disk, so that
+    // recovery cannot bring back a file deleted after this, as gc does.
+    synchronized void flush() {
+        try {
+            checkpoint();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // forces every file the journal names, and their directories, to disk,
+    // and then empties the journal
+    private void checkpoint() throws IOException {
+        try (FileChannel lock = lockChannel(JOURNAL_LOCK)) {
+            lock.lock();
+            Set<File> dirs = new LinkedHashSet<>();
+            for (String path : read(new HashSet<>()).keySet()) {
+                File target = Utils.join(gitletDir, path);
+                if (target.isFile()) {
+                    force(target);
+                }
+                dirs.add(target.getParentFile());
+            }
+            for (File dir : dirs) {
+                force(dir);
+            }
+            try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                out.truncate(0);
+                out.force(true);
+            }
+        }
+    }
+
+    // Forces the file or directory TARGET to disk. Directories cannot be
+    // opened on every system; there, renames are left to the file system.
+    static void force(File target) {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!target.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
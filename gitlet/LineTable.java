@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* Numbers the distinct lines of a set of texts, so that texts can be
+   compared as arrays of ints. Lines are not copied out of their texts: a
+   line is a range of its text, and keeps the newline that ends it, if any. */
+class LineTable {
+
+    /* A line of a text, used as a key into the table. */
+    private static final class Line {
+        // the text holding the line, and the range of the line within it
+        private final byte[] text;
+        private final int start;
+        private final int end;
+        // hash of the bytes of the line
+        private final int hash;
+
+        Line(byte[] text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + text[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            return hash == other.hash && Arrays.equals(text, start, end,
+                    other.text, other.start, other.end);
+        }
+    }
+
+    // number of each distinct line seen so far
+    private final HashMap<Line, Integer> numbers = new HashMap<>();
+
+    /* The lines of one text. */
+    static final class Lines {
+        // the text
+        final byte[] text;
+        // the number of each line in the table
+        final int[] ids;
+        // the offsets where the lines start, followed by the length of the text
+        final int[] starts;
+
+        Lines(byte[] text, int[] ids, int[] starts) {
+            this.text = text;
+            this.ids = ids;
+            this.starts = starts;
+        }
+
+        // returns the number of lines
+        int size() {
+            return ids.length;
+        }
+    }
+
+    // splits TEXT into lines, numbering each
+    Lines split(byte[] text) {
+        int count = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n') {
+                count += 1;
+            }
+        }
+        if (text.length > 0 && text[text.length - 1] != '\n') {
+            count += 1;
+        }
+        int[] ids = new int[count];
+        int[] starts = new int[count + 1];
+        int line = 0;
+        int start = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n' || i == text.length - 1) {
+                starts[line] = start;
+                ids[line] = number(new Line(text, start, i + 1));
+                line += 1;
+                start = i + 1;
+            }
+        }
+        starts[count] = text.length;
+        return new Lines(text, ids, starts);
+    }
+
+    // returns the number of LINE, giving it a new one if it was not seen before
+    private int number(Line line) {
+        Integer n = numbers.get(line);
+        if (n == null) {
+            n = numbers.size();
+            numbers.put(line, n);
+        }
+        return n;
+    }
+}
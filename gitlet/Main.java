@@ -1,10 +1,12 @@
 package gitlet;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 
 
 public class Main {
@@ -12,14 +14,19 @@ public class Main {
     // A Commit Tree that stores commits
     private static CommitTree commitTree;
 
+    // Directory of the repository metadata
+    private static final File GITLET_DIR = new File(".gitlet");
+
+    // Seconds an unreachable object is kept by gc unless --grace says otherwise
+    private static final long DEFAULT_GRACE = 3600;
+
+    // True while a batch runs; changes are then only saved at checkpoints
+    private static boolean inBatch;
+
     //Checks if a gitlet directory already exists
     private static boolean isGitletInitialized() {
         File checkDir = new File(System.getProperty("user.dir") + "/.gitlet");
-        if (checkDir.exists()) {
-            recoverCommitTree();
-            return true;
-        }
-        return false;
+        return checkDir.exists();
     }
 
     // Returns the operands of a command in an array of Strings
@@ -29,30 +36,29 @@ public class Main {
         return copy;
     }
 
-    // recovers Commit Tree that has been serialized
+    // opens the Commit Tree of the repository; commits are read on demand
     private static void recoverCommitTree() {
-        File main = new File(".gitlet/commitTree");
-        try {
-            ObjectInputStream inp = new ObjectInputStream(new FileInputStream(main));
-            commitTree = (CommitTree) inp.readObject();
-            inp.close();
-        } catch (IOException | ClassNotFoundException e) {
-            return;
-        }
+        commitTree = CommitTree.open(GITLET_DIR);
     }
 
-    // serialize a Commit Tree Object
+    // writes the parts of a Commit Tree that changed, unless a batch is running
     private static void serialize(CommitTree tree) {
-        File main = new File(".gitlet/commitTree");
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(main));
-            out.writeObject(tree);
-            out.close();
-        } catch (IOException e) {
-            return;
+        if (!inBatch) {
+            tree.save();
         }
     }
 
+    // makes TREE the Commit Tree that commands run against;
+    // null makes the next command read it from disk
+    static void useCommitTree(CommitTree tree) {
+        commitTree = tree;
+    }
+
+    // returns the Commit Tree the last command ran against
+    static CommitTree getCommitTree() {
+        return commitTree;
+    }
+
     // checks if arg is valid
     private static boolean isArgsValid(String[] args, int n) {
         if (args.length != n) {
@@ -64,7 +70,23 @@ public class Main {
 
 
     public static void main(String... args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            daemonHelper(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            batchHelper(args);
+            return;
+        }
+        // hands the command to a running daemon, if there is one
+        if (Daemon.forward(GITLET_DIR, args)) {
+            return;
+        }
+        run(args);
+    }
 
+    // Runs the command ARGS, reusing the Commit Tree in memory if there is one
+    static void run(String... args) {
         // checks failure cases first
         if (args.length == 0) {
             System.out.println("Please enter a command");
@@ -76,9 +98,7 @@ public class Main {
                 System.out.println("A gitlet version-control system "
                         + "already exists in the current directory.");
             } else {
-                commitTree = new CommitTree();
-                File directory = new File(".gitlet");
-                directory.mkdir();
+                commitTree = CommitTree.init(GITLET_DIR);
                 serialize(commitTree);
             }
         } else {
@@ -86,6 +106,13 @@ public class Main {
                 System.out.println("Not in an initialized gitlet directory.");
                 return;
             }
+            if (commitTree == null && CommitTree.isOldLayout(GITLET_DIR)) {
+                System.out.println(CommitTree.OLD_LAYOUT);
+                return;
+            }
+            if (commitTree == null) {
+                recoverCommitTree();
+            }
             // performs a command
             switch (args[0]) {
                 case "add":
@@ -124,6 +151,30 @@ public class Main {
                 case "merge":
                     mergeHelper(args);
                     break;
+                case "repack":
+                    repackHelper(args);
+                    break;
+                case "gc":
+                    gcHelper(args);
+                    break;
+                case "fsck":
+                    fsckHelper(args);
+                    break;
+                case "add-remote":
+                    addRemoteHelper(args);
+                    break;
+                case "rm-remote":
+                    rmRemoteHelper(args);
+                    break;
+                case "fetch":
+                    fetchHelper(args);
+                    break;
+                case "push":
+                    pushHelper(args);
+                    break;
+                case "pull":
+                    pullHelper(args);
+                    break;
                 default:
                     System.out.println("No command with that name exists.");
             }
@@ -132,10 +183,11 @@ public class Main {
 
     // COMMANDS HELPER
     private static void addHelper(String[] args) {
-        if (!isArgsValid(args, 2)) {
+        if (args.length < 2) {
+            System.out.println("Incorrect operands.");
             return;
         }
-        commitTree.add(args[1]);
+        commitTree.add(getOperands(args));
         serialize(commitTree);
     }
 
@@ -159,31 +211,77 @@ public class Main {
     }
 
     private static void logHelper(String[] args) {
-        if (!isArgsValid(args, 1)) {
+        long[] options = logOptions(args);
+        if (options == null) {
             return;
         }
-        commitTree.log();
+        commitTree.log((int) options[0], options[1], options[2]);
+        // keeps the commits the log had to add to the commit graph
+        serialize(commitTree);
     }
 
     private static void globalLogHelper(String[] args) {
-        if (!isArgsValid(args, 1)) {
+        long[] options = logOptions(args);
+        if (options == null) {
             return;
         }
-        commitTree.globalLog();
+        commitTree.globalLog((int) options[0], options[1], options[2]);
+        // keeps the commits the log had to add to the commit graph
+        serialize(commitTree);
+    }
+
+    // Returns the options of log or global-log in ARGS: the most commits to
+    // print (-n), and the first and last dates to print (--since, --until)
+    // in the seconds of CommitGraph. Returns null if they are not valid.
+    private static long[] logOptions(String[] args) {
+        long[] options = {Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE};
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException(args[i]);
+                }
+                switch (args[i]) {
+                    case "-n":
+                        options[0] = Integer.parseInt(args[i + 1]);
+                        if (options[0] < 0) {
+                            throw new IllegalArgumentException(args[i + 1]);
+                        }
+                        break;
+                    case "--since":
+                        options[1] = CommitGraph.parseDate(args[i + 1], false);
+                        break;
+                    case "--until":
+                        options[2] = CommitGraph.parseDate(args[i + 1], true);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException excp) {
+            System.out.println("Incorrect operands.");
+            return null;
+        }
+        return options;
     }
 
     private static void findHelper(String[] args) {
-        if (!isArgsValid(args, 2)) {
-            return;
+        if (args.length == 3 && args[1].equals("--grep")) {
+            commitTree.findGrep(args[2]);
+        } else if (isArgsValid(args, 2)) {
+            commitTree.find(args[1]);
         }
-        commitTree.find(args[1]);
+        // keeps the message index, if find had to build it
+        serialize(commitTree);
     }
 
     private static void statusHelper(String[] args) {
-        if (!isArgsValid(args, 1)) {
-            return;
+        if (args.length == 2 && args[1].equals("--porcelain")) {
+            commitTree.statusPorcelain();
+        } else if (isArgsValid(args, 1)) {
+            commitTree.status();
         }
-        commitTree.status();
+        // keeps the file ids status had to compute
+        serialize(commitTree);
     }
 
     private static void checkoutHelper(String[] args) {
@@ -226,4 +324,180 @@ public class Main {
         commitTree.merge(args[1]);
         serialize(commitTree);
     }
+
+    // Runs the commands read from the file named by the operand, or from the
+    // standard input, one per line. The repository is read once and saved at
+    // the end and at every "checkpoint" line. Blank lines and lines starting
+    // with # are skipped.
+    private static void batchHelper(String[] args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        int lineNumber = 0;
+        inBatch = true;
+        try (InputStream input = args.length == 2 ? new FileInputStream(args[1]) : System.in) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber += 1;
+                String[] command = splitCommand(line);
+                if (command.length == 0 || command[0].startsWith("#")) {
+                    continue;
+                }
+                if (command[0].equals("checkpoint") && command.length == 1) {
+                    if (commitTree != null) {
+                        commitTree.save();
+                    }
+                } else if (command[0].equals("batch")) {
+                    System.out.println("Line " + lineNumber + ": cannot run a batch in a batch.");
+                } else {
+                    run(command);
+                }
+            }
+            if (commitTree != null) {
+                commitTree.save();
+            }
+        } catch (IOException excp) {
+            System.out.println("Could not read the batch: " + excp.getMessage());
+        } catch (RuntimeException excp) {
+            System.out.println("Line " + lineNumber + ": " + excp.getMessage()
+                    + " (changes after the last checkpoint were not saved)");
+        } finally {
+            inBatch = false;
+        }
+    }
+
+    // Splits LINE into words separated by blanks. Double quotes group words,
+    // and a backslash inside them escapes the next character.
+    private static String[] splitCommand(String line) {
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) {
+                    i += 1;
+                    word.append(line.charAt(i));
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static void daemonHelper(String[] args) {
+        if (args.length == 2 && args[1].equals("stop")) {
+            if (!Daemon.forward(GITLET_DIR, args)) {
+                System.out.println("No gitlet daemon is running.");
+            }
+            return;
+        }
+        boolean watch = args.length == 2 && args[1].equals("--watch");
+        if (!watch && !isArgsValid(args, 1)) {
+            return;
+        }
+        if (!isGitletInitialized()) {
+            System.out.println("Not in an initialized gitlet directory.");
+            return;
+        }
+        if (CommitTree.isOldLayout(GITLET_DIR)) {
+            System.out.println(CommitTree.OLD_LAYOUT);
+            return;
+        }
+        Daemon.serve(GITLET_DIR, watch);
+    }
+
+    private static void repackHelper(String[] args) {
+        if (!isArgsValid(args, 1)) {
+            return;
+        }
+        commitTree.repack();
+    }
+
+    // the path of the remote's .gitlet directory is given with '/' between names
+    private static void addRemoteHelper(String[] args) {
+        if (!isArgsValid(args, 3)) {
+            return;
+        }
+        commitTree.addRemote(args[1], args[2].replace('/', File.separatorChar));
+    }
+
+    private static void rmRemoteHelper(String[] args) {
+        if (!isArgsValid(args, 2)) {
+            return;
+        }
+        commitTree.rmRemote(args[1]);
+    }
+
+    private static void fetchHelper(String[] args) {
+        if (!isArgsValid(args, 3)) {
+            return;
+        }
+        commitTree.fetch(args[1], args[2]);
+        serialize(commitTree);
+    }
+
+    private static void pushHelper(String[] args) {
+        if (!isArgsValid(args, 3)) {
+            return;
+        }
+        commitTree.push(args[1], args[2]);
+        serialize(commitTree);
+    }
+
+    private static void pullHelper(String[] args) {
+        if (!isArgsValid(args, 3)) {
+            return;
+        }
+        commitTree.pull(args[1], args[2]);
+        serialize(commitTree);
+    }
+
+    private static void fsckHelper(String[] args) {
+        if (!isArgsValid(args, 1)) {
+            return;
+        }
+        commitTree.fsck();
+    }
+
+    private static void gcHelper(String[] args) {
+        long grace = DEFAULT_GRACE;
+        if (args.length == 3 && args[1].equals("--grace")) {
+            try {
+                grace = Long.parseLong(args[2]);
+            } catch (NumberFormatException e) {
+                grace = -1;
+            }
+        } else if (args.length != 1) {
+            grace = -1;
+        }
+        if (grace < 0) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        commitTree.gc(grace);
+    }
 }
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/* Three-way merge of texts, line by line. Both changed versions are diffed
+   against their common base. The base lines that are paired in both diffs
+   are stable; between two stable runs lies a chunk that one side, both
+   sides or neither changed. A chunk changed on one side only takes that
+   side's lines, and so does a chunk both sides changed in the same way.
+   Only a chunk the two sides changed differently becomes a conflict:
+
+   <<<<<<< HEAD
+   lines of the current branch
+   =======
+   lines of the given branch
+   >>>>>>>
+
+   The merged text is written to its stream one run of lines at a time,
+   straight from the three versions, and never built in memory. */
+class Merge3 {
+
+    // conflict markers
+    static final byte[] START = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] MIDDLE = "=======\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    // the three versions
+    private final LineTable.Lines base;
+    private final LineTable.Lines ours;
+    private final LineTable.Lines theirs;
+    // where the merged text goes
+    private final OutputStream out;
+    // number of conflicting chunks written
+    private int conflicts;
+
+    // Constructor
+    private Merge3(byte[] base, byte[] ours, byte[] theirs, OutputStream out) {
+        LineTable table = new LineTable();
+        this.base = table.split(base);
+        this.ours = table.split(ours);
+        this.theirs = table.split(theirs);
+        this.out = out;
+    }
+
+    // Merges OURS and THEIRS, two versions of the text BASE, and writes the
+    // result to OUT. Returns the number of conflicting chunks.
+    static int merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        Merge3 merge = new Merge3(base, ours, theirs, out);
+        merge.run();
+        return merge.conflicts;
+    }
+
+    // walks the stable runs and the chunks between them
+    private void run() throws IOException {
+        int[] toOurs = Diff.match(base.ids, ours.ids);
+        int[] toTheirs = Diff.match(base.ids, theirs.ids);
+        int o = 0;
+        int a = 0;
+        int b = 0;
+        int n = base.size();
+        while (o < n || a < ours.size() || b < theirs.size()) {
+            int stable = 0;
+            while (o + stable < n && toOurs[o + stable] == a + stable
+                    && toTheirs[o + stable] == b + stable) {
+                stable += 1;
+            }
+            if (stable > 0) {
+                write(base, o, o + stable);
+                o += stable;
+                a += stable;
+                b += stable;
+                continue;
+            }
+            // the chunk runs up to the next base line paired on both sides
+            int next = o;
+            while (next < n && (toOurs[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int aEnd = next < n ? toOurs[next] : ours.size();
+            int bEnd = next < n ? toTheirs[next] : theirs.size();
+            chunk(o, next, a, aEnd, b, bEnd);
+            o = next;
+            a = aEnd;
+            b = bEnd;
+        }
+    }
+
+    // Writes the merge of the chunk BASE[O..OEND), OURS[A..AEND), THEIRS[B..BEND)
+    private void chunk(int o, int oEnd, int a, int aEnd, int b, int bEnd) throws IOException {
+        if (same(base, o, oEnd, ours, a, aEnd)) {
+            write(theirs, b, bEnd);
+        } else if (same(base, o, oEnd, theirs, b, bEnd) || same(ours, a, aEnd, theirs, b, bEnd)) {
+            write(ours, a, aEnd);
+        } else {
+            conflicts += 1;
+            out.write(START);
+            writeSide(ours, a, aEnd);
+            out.write(MIDDLE);
+            writeSide(theirs, b, bEnd);
+            out.write(END);
+        }
+    }
+
+    // returns true if the lines X[I..IEND) are the lines Y[J..JEND)
+    private static boolean same(LineTable.Lines x, int i, int iEnd, LineTable.Lines y, int j, int jEnd) {
+        if (iEnd - i != jEnd - j) {
+            return false;
+        }
+        for (int k = 0; k < iEnd - i; k += 1) {
+            if (x.ids[i + k] != y.ids[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // writes the lines LINES[FROM..TO)
+    private void write(LineTable.Lines lines, int from, int to) throws IOException {
+        if (from < to) {
+            out.write(lines.text, lines.starts[from], lines.starts[to] - lines.starts[from]);
+        }
+    }
+
+    // writes the lines LINES[FROM..TO) as one side of a conflict, ending
+    // them with a newline so that the next marker starts a line
+    private void writeSide(LineTable.Lines lines, int from, int to) throws IOException {
+        write(lines, from, to);
+        if (from < to && lines.text[lines.starts[to] - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+/* What a merge does to each file, worked out from the tree diffs of the
+   current and the given branch against their split point, before any file
+   is touched. A path that neither branch changed is in neither diff and
+   needs nothing. Every other path gets one Step:
+
+   TAKE_OURS    only the current branch changed it, or both changed it alike
+   TAKE_THEIRS  only the given branch changed it, to a new version
+   ADD          only the given branch has it, and the split point did not
+   DELETE       only the given branch changed it, by removing it
+   CONFLICT     both branches changed it, differently
+
+   Files are matched by path, never by content, and the two diffs are
+   walked together in path order, so a plan costs time linear in the number
+   of changed paths. */
+class MergePlan {
+
+    /* The kinds of step. */
+    enum Action { TAKE_OURS, TAKE_THEIRS, ADD, DELETE, CONFLICT }
+
+    /* The step for one path, with the blob ids of its three versions, each
+       null where the path is absent. */
+    static final class Step {
+        final String path;
+        final Action action;
+        final String split;
+        final String ours;
+        final String theirs;
+
+        Step(String path, Action action, String split, String ours, String theirs) {
+            this.path = path;
+            this.action = action;
+            this.split = split;
+            this.ours = ours;
+            this.theirs = theirs;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + path;
+        }
+    }
+
+    // Returns the steps of the merge, in path order. OURS and THEIRS map each
+    // path the current and the given branch changed since the split point to
+    // {blob id at the split point, blob id in the branch}, as TreeStore.diff does.
+    static List<Step> plan(SortedMap<String, String[]> ours, SortedMap<String, String[]> theirs) {
+        List<Step> result = new ArrayList<>();
+        Iterator<Map.Entry<String, String[]>> a = ours.entrySet().iterator();
+        Iterator<Map.Entry<String, String[]>> b = theirs.entrySet().iterator();
+        Map.Entry<String, String[]> x = a.hasNext() ? a.next() : null;
+        Map.Entry<String, String[]> y = b.hasNext() ? b.next() : null;
+        while (x != null || y != null) {
+            int cmp = x == null ? 1 : y == null ? -1 : x.getKey().compareTo(y.getKey());
+            if (cmp < 0) {
+                String[] v = x.getValue();
+                result.add(new Step(x.getKey(), Action.TAKE_OURS, v[0], v[1], v[0]));
+                x = a.hasNext() ? a.next() : null;
+            } else if (cmp > 0) {
+                String[] v = y.getValue();
+                result.add(new Step(y.getKey(), theirsOnly(v[0], v[1]), v[0], v[0], v[1]));
+                y = b.hasNext() ? b.next() : null;
+            } else {
+                String split = x.getValue()[0];
+                String mine = x.getValue()[1];
+                String given = y.getValue()[1];
+                Action action = Objects.equals(mine, given) ? Action.TAKE_OURS : Action.CONFLICT;
+                result.add(new Step(x.getKey(), action, split, mine, given));
+                x = a.hasNext() ? a.next() : null;
+                y = b.hasNext() ? b.next() : null;
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // returns the step for a path only the given branch changed, from SPLIT to GIVEN
+    private static Action theirsOnly(String split, String given) {
+        if (given == null) {
+            return Action.DELETE;
+        } else if (split == null) {
+            return Action.ADD;
+        }
+        return Action.TAKE_THEIRS;
+    }
+}
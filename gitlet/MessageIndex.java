@@ -0,0 +1,483 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/* The messages of all commits, indexed so that find looks only at the
+   commits that can match. .gitlet/messages holds one record per commit, in
+   the order the commits were made:
+
+   record := id int(length) utf-8-bytes
+
+   .gitlet/message-index indexes the records before byte COVERED of it. Its
+   exact table maps the hash of each message to the offset of its record;
+   its gram table maps each trigram of the lower-cased messages, three bytes
+   in an int, to a run of the postings, which are the offsets of the records
+   holding it, in increasing order. Both tables are sorted, and are searched
+   in place in the mapped file.
+
+   index := "GCMX" int(covered) int(exact count) int(gram count)
+            (int(hash) int(offset))* (int(gram) int(first) int(count))*
+            int(offset)*
+
+   The records after COVERED, at most MAX_TAIL of them, are scanned. Once
+   there are more, the index is written again to cover them all.
+
+   The records are appended after the journal commits the commits they
+   describe, so a crash between the two leaves commits without a record.
+   Before the first search, the records are counted against the stored
+   commits, and those missing are added. */
+class MessageIndex {
+
+    // magic number of the index file
+    private static final int MAGIC = 0x47434d58;
+    // bytes before the exact table
+    private static final int HEADER = 16;
+    // bytes per entry of the exact and the gram tables
+    private static final int ENTRY = 8;
+    private static final int GRAM_ENTRY = 12;
+    // bytes of a commit id
+    private static final int ID_SIZE = 20;
+    // most records left out of the index
+    private static final int MAX_TAIL = 1024;
+
+    /* A record of the messages file. */
+    private static final class Record {
+        final String id;
+        final String message;
+
+        Record(String id, String message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    // the messages file and the index file
+    private final File messagesFile;
+    private final File indexFile;
+    // the messages file, mapped into memory up to its length when read
+    private MappedByteBuffer messages;
+    // the index, mapped into memory, or null if there is none
+    private MappedByteBuffer index;
+    // bytes of the messages file the index covers
+    private int covered;
+    // entries of the exact and the gram tables
+    private int exactCount;
+    private int gramCount;
+    // records after COVERED, including those not yet written
+    private final List<Record> tail = new ArrayList<>();
+    // records added since the messages file was last written
+    private final List<Record> unsaved = new ArrayList<>();
+    // the stored commits, and how to read one
+    private final ObjectStore commits;
+    private final Function<String, CommitObject> reader;
+    // true once every stored commit is known to have a record
+    private boolean reconciled;
+
+    // Constructor
+    private MessageIndex(File gitletDir, ObjectStore commits,
+                         Function<String, CommitObject> reader) {
+        messagesFile = Utils.join(gitletDir, "messages");
+        indexFile = Utils.join(gitletDir, "message-index");
+        this.commits = commits;
+        this.reader = reader;
+    }
+
+    // Reads the message index of the repository in GITLETDIR. If there is
+    // none, it is built from the commits in COMMITS, read by READER, and
+    // written by the next save().
+    static MessageIndex load(File gitletDir, ObjectStore commits,
+                             Function<String, CommitObject> reader) {
+        MessageIndex result = new MessageIndex(gitletDir, commits, reader);
+        if (!result.messagesFile.isFile()) {
+            for (String id : commits.ids()) {
+                result.add(id, reader.apply(id).getMessage());
+            }
+            result.reconciled = true;
+            return result;
+        }
+        result.read();
+        return result;
+    }
+
+    // adds a record for each stored commit that has none, left out by a
+    // crash after the commit was stored
+    private void reconcile() {
+        if (reconciled) {
+            return;
+        }
+        reconciled = true;
+        List<String> ids = commits.ids();
+        if ((index == null ? 0 : exactCount) + tail.size() >= ids.size()) {
+            return;
+        }
+        HashSet<String> recorded = new HashSet<>();
+        for (int offset = 0; offset < covered; offset = next(offset)) {
+            recorded.add(idAt(offset));
+        }
+        for (Record r : tail) {
+            recorded.add(r.id);
+        }
+        for (String id : ids) {
+            if (!recorded.contains(id)) {
+                add(id, reader.apply(id).getMessage());
+            }
+        }
+    }
+
+    // maps the messages file and the index, and reads the records the index
+    // does not cover
+    private void read() {
+        try (RandomAccessFile in = new RandomAccessFile(messagesFile, "r")) {
+            messages = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        index = null;
+        covered = 0;
+        if (indexFile.isFile()) {
+            try (RandomAccessFile in = new RandomAccessFile(indexFile, "r")) {
+                MappedByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+                if (in.length() >= HEADER && map.getInt(0) == MAGIC
+                        && map.getInt(4) <= messages.capacity()) {
+                    index = map;
+                    covered = map.getInt(4);
+                    exactCount = map.getInt(8);
+                    gramCount = map.getInt(12);
+                }
+            } catch (IOException excp) {
+                index = null;
+            }
+        }
+        tail.clear();
+        // a record cut short by a crash is dropped, and overwritten by the next save
+        int end = covered;
+        for (int offset = covered; offset < messages.capacity(); offset = next(offset)) {
+            if (next(offset) > messages.capacity()) {
+                break;
+            }
+            tail.add(new Record(idAt(offset), messageAt(offset)));
+            end = next(offset);
+        }
+        if (end < messages.capacity()) {
+            truncate(end);
+        }
+    }
+
+    // returns the offset of the record after the one at OFFSET
+    private int next(int offset) {
+        if (offset + ID_SIZE + 4 > messages.capacity()) {
+            return Integer.MAX_VALUE;
+        }
+        return offset + ID_SIZE + 4 + messages.getInt(offset + ID_SIZE);
+    }
+
+    // cuts the messages file down to its first LENGTH bytes
+    private void truncate(int length) {
+        try (RandomAccessFile out = new RandomAccessFile(messagesFile, "rw")) {
+            out.setLength(length);
+            messages = out.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // records MESSAGE as the message of the new commit ID
+    void add(String id, String message) {
+        Record record = new Record(id, message);
+        tail.add(record);
+        unsaved.add(record);
+    }
+
+    // returns the ids of the commits whose message is MESSAGE
+    List<String> exact(String message) {
+        reconcile();
+        List<String> result = new ArrayList<>();
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (index != null) {
+            int hash = message.hashCode();
+            int lo = 0;
+            int hi = exactCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (index.getInt(HEADER + mid * ENTRY) < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < exactCount && index.getInt(HEADER + i * ENTRY) == hash; i += 1) {
+                int offset = index.getInt(HEADER + i * ENTRY + 4);
+                if (Arrays.equals(messageBytesAt(offset), bytes)) {
+                    result.add(idAt(offset));
+                }
+            }
+        }
+        for (Record r : tail) {
+            if (r.message.equals(message)) {
+                result.add(r.id);
+            }
+        }
+        return result;
+    }
+
+    // returns the ids of the commits whose message holds TEXT, ignoring case
+    List<String> grep(String text) {
+        reconcile();
+        String lower = text.toLowerCase(Locale.ROOT);
+        List<String> result = new ArrayList<>();
+        if (index != null) {
+            int[] candidates = candidates(lower.getBytes(StandardCharsets.UTF_8));
+            if (candidates == null) {
+                // too short to have a trigram: every indexed record is a candidate
+                for (int offset = 0; offset < covered; offset = next(offset)) {
+                    if (messageAt(offset).toLowerCase(Locale.ROOT).contains(lower)) {
+                        result.add(idAt(offset));
+                    }
+                }
+            } else {
+                for (int offset : candidates) {
+                    if (messageAt(offset).toLowerCase(Locale.ROOT).contains(lower)) {
+                        result.add(idAt(offset));
+                    }
+                }
+            }
+        }
+        for (Record r : tail) {
+            if (r.message.toLowerCase(Locale.ROOT).contains(lower)) {
+                result.add(r.id);
+            }
+        }
+        return result;
+    }
+
+    // Returns the offsets of the indexed records holding every trigram of
+    // TEXT, in increasing order, or null if TEXT has no trigram.
+    private int[] candidates(byte[] text) {
+        if (text.length < 3) {
+            return null;
+        }
+        // the posting runs of the trigrams, shortest first
+        List<int[]> runs = new ArrayList<>();
+        for (int i = 0; i + 3 <= text.length; i += 1) {
+            int at = findGram(gram(text, i));
+            if (at < 0) {
+                return new int[0];
+            }
+            runs.add(new int[] {index.getInt(at + 4), index.getInt(at + 8)});
+        }
+        runs.sort((a, b) -> Integer.compare(a[1], b[1]));
+        int postings = HEADER + exactCount * ENTRY + gramCount * GRAM_ENTRY;
+        int[] first = runs.get(0);
+        int[] result = new int[first[1]];
+        int found = 0;
+        for (int k = 0; k < first[1]; k += 1) {
+            int offset = index.getInt(postings + 4 * (first[0] + k));
+            boolean inAll = true;
+            for (int r = 1; r < runs.size() && inAll; r += 1) {
+                inAll = contains(postings, runs.get(r), offset);
+            }
+            if (inAll) {
+                result[found] = offset;
+                found += 1;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    // returns true if the posting run RUN, of the postings at POSTINGS, holds OFFSET
+    private boolean contains(int postings, int[] run, int offset) {
+        int lo = 0;
+        int hi = run[1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = index.getInt(postings + 4 * (run[0] + mid));
+            if (value < offset) {
+                lo = mid + 1;
+            } else if (value > offset) {
+                hi = mid;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns the position in the index of the gram table entry of GRAM, or -1
+    private int findGram(int gram) {
+        int base = HEADER + exactCount * ENTRY;
+        int lo = 0;
+        int hi = gramCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = index.getInt(base + mid * GRAM_ENTRY);
+            if (value < gram) {
+                lo = mid + 1;
+            } else if (value > gram) {
+                hi = mid - 1;
+            } else {
+                return base + mid * GRAM_ENTRY;
+            }
+        }
+        return -1;
+    }
+
+    // returns the trigram of TEXT at I
+    private static int gram(byte[] text, int i) {
+        return (text[i] & 0xff) << 16 | (text[i + 1] & 0xff) << 8 | (text[i + 2] & 0xff);
+    }
+
+    // returns the id of the record at OFFSET
+    private String idAt(int offset) {
+        byte[] raw = new byte[ID_SIZE];
+        messages.get(offset, raw);
+        return PackFile.toHex(raw);
+    }
+
+    // returns the message bytes of the record at OFFSET
+    private byte[] messageBytesAt(int offset) {
+        byte[] bytes = new byte[messages.getInt(offset + ID_SIZE)];
+        messages.get(offset + ID_SIZE + 4, bytes);
+        return bytes;
+    }
+
+    // returns the message of the record at OFFSET
+    private String messageAt(int offset) {
+        return new String(messageBytesAt(offset), StandardCharsets.UTF_8);
+    }
+
+    // Appends the records added since the last save to the messages file,
+    // and writes the index again if too many records are left out of it.
+    void save() {
+        if (unsaved.isEmpty() && tail.size() <= MAX_TAIL) {
+            return;
+        }
+        try {
+            messagesFile.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(messagesFile, true)))) {
+                for (Record r : unsaved) {
+                    byte[] bytes = r.message.getBytes(StandardCharsets.UTF_8);
+                    out.write(PackFile.fromHex(r.id));
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            unsaved.clear();
+            read();
+            if (tail.size() > MAX_TAIL) {
+                writeIndex();
+                read();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Writes an index of every record of the messages file, merging the
+    // records after COVERED into the tables of the index there is.
+    private void writeIndex() throws IOException {
+        int end = messages.capacity();
+        int oldExact = index == null ? 0 : exactCount;
+        int oldGrams = index == null ? 0 : gramCount;
+        int oldPostings = HEADER + oldExact * ENTRY + oldGrams * GRAM_ENTRY;
+        // the exact and gram entries of the new records, each as a long
+        // that sorts by hash or gram, then by offset
+        long[] exact = new long[tail.size()];
+        long[] grams = new long[1024];
+        int exactPairs = 0;
+        int gramPairs = 0;
+        HashSet<Integer> seen = new HashSet<>();
+        for (int offset = covered; offset < end; offset = next(offset)) {
+            String message = messageAt(offset);
+            exact[exactPairs] = (long) message.hashCode() << 32 | offset;
+            exactPairs += 1;
+            byte[] lower = message.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+            seen.clear();
+            for (int i = 0; i + 3 <= lower.length; i += 1) {
+                int g = gram(lower, i);
+                if (seen.add(g)) {
+                    if (gramPairs == grams.length) {
+                        grams = Arrays.copyOf(grams, 2 * grams.length);
+                    }
+                    grams[gramPairs] = (long) g << 32 | offset;
+                    gramPairs += 1;
+                }
+            }
+        }
+        Arrays.sort(exact, 0, exactPairs);
+        Arrays.sort(grams, 0, gramPairs);
+        // the merged gram table: each gram, the first of its postings, the
+        // number and first of those from the old index, and the run of GRAMS
+        // with those of the new records
+        List<int[]> table = new ArrayList<>();
+        int first = 0;
+        for (int i = 0, j = 0; i < oldGrams || j < gramPairs; ) {
+            int oldGram = i < oldGrams ? index.getInt(HEADER + oldExact * ENTRY + i * GRAM_ENTRY)
+                    : Integer.MAX_VALUE;
+            int newGram = j < gramPairs ? (int) (grams[j] >>> 32) : Integer.MAX_VALUE;
+            int g = Math.min(oldGram, newGram);
+            int[] entry = {g, first, 0, 0, j, j};
+            if (oldGram == g) {
+                entry[2] = index.getInt(HEADER + oldExact * ENTRY + i * GRAM_ENTRY + 8);
+                entry[3] = index.getInt(HEADER + oldExact * ENTRY + i * GRAM_ENTRY + 4);
+                i += 1;
+            }
+            while (j < gramPairs && (int) (grams[j] >>> 32) == g) {
+                j += 1;
+            }
+            entry[5] = j;
+            first += entry[2] + entry[5] - entry[4];
+            table.add(entry);
+        }
+        File temp = File.createTempFile("tmp-", ".idx", indexFile.getParentFile());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(end);
+            out.writeInt(oldExact + exactPairs);
+            out.writeInt(table.size());
+            for (int i = 0, j = 0; i < oldExact || j < exactPairs; ) {
+                long old = i < oldExact ? index.getLong(HEADER + i * ENTRY) : Long.MAX_VALUE;
+                if (j == exactPairs || old <= exact[j]) {
+                    out.writeLong(old);
+                    i += 1;
+                } else {
+                    out.writeLong(exact[j]);
+                    j += 1;
+                }
+            }
+            for (int[] entry : table) {
+                out.writeInt(entry[0]);
+                out.writeInt(entry[1]);
+                out.writeInt(entry[2] + entry[5] - entry[4]);
+            }
+            // the postings of a gram: those of the old index, then those of
+            // the new records, which all come after them in the file
+            for (int[] entry : table) {
+                for (int k = 0; k < entry[2]; k += 1) {
+                    out.writeInt(index.getInt(oldPostings + 4 * (entry[3] + k)));
+                }
+                for (int j = entry[4]; j < entry[5]; j += 1) {
+                    out.writeInt((int) grams[j]);
+                }
+            }
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/* A directory of content-addressed records. Each record is serialized into
+   its own file, named by its id and fanned out over subdirectories named by
+   the first two characters of the id, so that a command reads and writes
+   only the records it actually touches. Files whose names start with
+   Journal.TEMP_PREFIX are records still being written, and are skipped. */
+public class ObjectStore {
+
+    // directory holding the records of this store
+    private final File directory;
+    // journal that new records are written through
+    private final Journal journal;
+
+    // Constructor: the store lives in the subdirectory NAME of GITLETDIR
+    public ObjectStore(File gitletDir, String name, Journal journal) {
+        directory = Utils.join(gitletDir, name);
+        this.journal = journal;
+    }
+
+    // returns the file that holds the record with the given id
+    private File fileOf(String id) {
+        return Utils.join(directory, id.substring(0, 2), id.substring(2));
+    }
+
+    // returns true if a record with the given id is stored
+    public boolean contains(String id) {
+        return id != null && id.length() > 2 && fileOf(id).isFile();
+    }
+
+    // Writes OBJ under ID. Records are immutable, so an existing
+    // record is never rewritten.
+    public void put(String id, Serializable obj) {
+        File file = fileOf(id);
+        if (file.isFile()) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        journal.write(file, Utils.serialize(obj));
+    }
+
+    // Reads the record with the given id, or returns null if there is none
+    public <T extends Serializable> T get(String id, Class<T> expectedClass) {
+        if (!contains(id)) {
+            return null;
+        }
+        return Utils.readObject(fileOf(id), expectedClass);
+    }
+
+    // returns the ids of all records in this store
+    public List<String> ids() {
+        List<String> result = new ArrayList<>();
+        File[] fanOut = directory.listFiles();
+        if (fanOut == null) {
+            return result;
+        }
+        for (File sub : fanOut) {
+            List<String> names = Utils.plainFilenamesIn(sub);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (!name.startsWith(Journal.TEMP_PREFIX)) {
+                    result.add(sub.getName() + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Reads every record, a fan-out directory per task in parallel, and
+    // passes each to CHECK along with its id; the ids of the records that
+    // cannot be read as an EXPECTEDCLASS go to DAMAGED instead. Adds the
+    // bytes read to READ and returns the number of records.
+    public <T extends Serializable> int verify(Class<T> expectedClass, BiConsumer<String, T> check,
+                                               Consumer<String> damaged, AtomicLong read) {
+        File[] fanOut = directory.listFiles(File::isDirectory);
+        if (fanOut == null) {
+            return 0;
+        }
+        return Arrays.stream(fanOut).parallel().mapToInt(sub -> {
+            File[] files = sub.listFiles(f -> f.isFile()
+                    && !f.getName().startsWith(Journal.TEMP_PREFIX));
+            for (File f : files == null ? new File[0] : files) {
+                String id = sub.getName() + f.getName();
+                T obj;
+                try {
+                    byte[] bytes = Utils.readContents(f);
+                    read.addAndGet(bytes.length);
+                    obj = Utils.deserialize(bytes, expectedClass);
+                } catch (IllegalArgumentException e) {
+                    damaged.accept(id);
+                    continue;
+                }
+                check.accept(id, obj);
+            }
+            return files == null ? 0 : files.length;
+        }).sum();
+    }
+
+    // Deletes the records not in LIVE that were last modified before CUTOFF,
+    // in milliseconds, and returns how many. Adds the bytes freed to FREED.
+    // The fan-out directories are swept in parallel.
+    public int sweep(Set<String> live, long cutoff, AtomicLong freed) {
+        File[] fanOut = directory.listFiles(File::isDirectory);
+        if (fanOut == null) {
+            return 0;
+        }
+        return Arrays.stream(fanOut).parallel().mapToInt(sub -> {
+            int deleted = 0;
+            File[] files = sub.listFiles(File::isFile);
+            for (File f : files == null ? new File[0] : files) {
+                long length = f.length();
+                if (!live.contains(sub.getName() + f.getName())
+                        && f.lastModified() < cutoff && f.delete()) {
+                    freed.addAndGet(length);
+                    deleted += 1;
+                }
+            }
+            return deleted;
+        }).sum();
+    }
+
+    // returns the ids of the records that start with PREFIX, listing only
+    // one subdirectory when PREFIX has at least two characters
+    public List<String> idsWithPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        if (prefix.length() < 2) {
+            for (String id : ids()) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+        String fanOut = prefix.substring(0, 2);
+        List<String> names = Utils.plainFilenamesIn(Utils.join(directory, fanOut));
+        if (names != null) {
+            for (String name : names) {
+                if ((fanOut + name).startsWith(prefix)) {
+                    result.add(fanOut + name);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/* A read-only pack of blobs, written by PackWriter. The pack file holds the
+   objects one after another, each deflate-compressed and either stored whole
+   or as a Delta against an earlier object of the same pack:
+
+   pack   := "GPAK" int(count) record*
+   record := FULL  int(length) int(stored length) deflated-bytes
+           | DELTA long(offset of base) int(length) int(stored length) deflated-bytes
+
+   The index file next to it holds the ids of the objects in sorted order,
+   each as 20 raw bytes followed by the long offset of its record, so an
+   object is found by binary search without reading the pack.
+
+   index  := "GIDX" int(count) (id offset)*                                */
+class PackFile {
+
+    // record types
+    static final int FULL = 0;
+    static final int DELTA = 1;
+    // magic numbers of pack and index files
+    static final int PACK_MAGIC = 0x4750414b;
+    static final int INDEX_MAGIC = 0x47494458;
+    // bytes per index entry
+    static final int ENTRY_SIZE = 28;
+    // bytes before the first index entry
+    static final int INDEX_HEADER = 8;
+    // most bytes deflate can expand a stream to, per byte of the stream
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    // most bytes of decoded objects kept for use as delta bases
+    private static final int CACHE_BYTES = 32 << 20;
+
+    // the pack file
+    private final File pack;
+    // the index, mapped into memory
+    private final MappedByteBuffer index;
+    // number of objects in the pack
+    private final int count;
+    // open handle on the pack file
+    private RandomAccessFile data;
+    // recently decoded objects, by offset, in least recently used order
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    // total length of the objects in the cache
+    private long cachedBytes;
+
+    // Opens the pack PACK, whose index has the same name ending in .idx
+    PackFile(File pack) {
+        this.pack = pack;
+        try (RandomAccessFile idx = new RandomAccessFile(indexOf(pack), "r")) {
+            index = idx.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, idx.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("bad pack index " + pack.getName());
+        }
+        count = index.getInt(4);
+    }
+
+    // returns the index file of the pack PACK
+    static File indexOf(File pack) {
+        String name = pack.getName();
+        return new File(pack.getParentFile(), name.substring(0, name.length() - 5) + ".idx");
+    }
+
+    // returns the pack file
+    File getFile() {
+        return pack;
+    }
+
+    // returns the number of objects in the pack
+    int size() {
+        return count;
+    }
+
+    // returns the id of the Ith object in index order
+    String idAt(int i) {
+        byte[] raw = new byte[20];
+        for (int k = 0; k < 20; k += 1) {
+            raw[k] = index.get(INDEX_HEADER + i * ENTRY_SIZE + k);
+        }
+        return toHex(raw);
+    }
+
+    // returns the offset of the record of the object with the given id, or -1
+    long find(String id) {
+        byte[] key = fromHex(id);
+        if (key == null) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return index.getLong(INDEX_HEADER + mid * ENTRY_SIZE + 20);
+            }
+        }
+        return -1;
+    }
+
+    // returns true if the pack holds the object with the given id
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    // returns the contents of the object with the given id, or null
+    synchronized byte[] read(String id) {
+        long offset = find(id);
+        if (offset < 0) {
+            return null;
+        }
+        return readAt(offset);
+    }
+
+    // decodes the record at OFFSET, resolving its chain of delta bases
+    private byte[] readAt(long offset) {
+        byte[] cached = cache.get(offset);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] result;
+        try {
+            if (data == null) {
+                data = new RandomAccessFile(pack, "r");
+            }
+            data.seek(offset);
+            int type = data.readByte();
+            long baseOffset = type == DELTA ? data.readLong() : -1;
+            int length = data.readInt();
+            int storedLength = data.readInt();
+            // a damaged record must not make the lengths allocated huge, nor
+            // its chain of bases endless; a base comes before its deltas
+            if (storedLength < 0 || storedLength > data.length() - data.getFilePointer()
+                    || length < 0 || length > (long) storedLength * MAX_DEFLATE_RATIO
+                    || (type == DELTA && (baseOffset < 0 || baseOffset >= offset))) {
+                throw new IllegalArgumentException("corrupt pack " + pack.getName());
+            }
+            byte[] stored = new byte[storedLength];
+            data.readFully(stored);
+            byte[] payload = inflate(stored, length);
+            if (type == FULL) {
+                result = payload;
+            } else if (type == DELTA) {
+                result = Delta.apply(readAt(baseOffset), payload);
+            } else {
+                throw new IllegalArgumentException("corrupt pack " + pack.getName());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        remember(offset, result);
+        return result;
+    }
+
+    // adds CONTENT to the cache, evicting the least recently used objects
+    private void remember(long offset, byte[] content) {
+        if (content.length > CACHE_BYTES / 4) {
+            return;
+        }
+        cache.put(offset, content);
+        cachedBytes += content.length;
+        while (cachedBytes > CACHE_BYTES) {
+            Map.Entry<Long, byte[]> eldest = cache.entrySet().iterator().next();
+            cachedBytes -= eldest.getValue().length;
+            cache.remove(eldest.getKey());
+        }
+    }
+
+    // closes the pack file
+    synchronized void close() {
+        try {
+            if (data != null) {
+                data.close();
+                data = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // returns the LENGTH bytes deflated into STORED
+    private byte[] inflate(byte[] stored, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] result = new byte[length];
+            int filled = 0;
+            while (filled < length && !inflater.finished()) {
+                int n = inflater.inflate(result, filled, length - filled);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += n;
+            }
+            if (filled != length) {
+                throw new IllegalArgumentException("corrupt pack " + pack.getName());
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt pack " + pack.getName());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // compares the id of the Ith index entry with KEY
+    private int compareAt(int i, byte[] key) {
+        int base = INDEX_HEADER + i * ENTRY_SIZE;
+        for (int k = 0; k < 20; k += 1) {
+            int cmp = Integer.compare(index.get(base + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    // returns the 20 bytes written in hex in ID, or null if ID is not a full id
+    static byte[] fromHex(String id) {
+        if (id.length() != 40) {
+            return null;
+        }
+        byte[] result = new byte[20];
+        for (int k = 0; k < 20; k += 1) {
+            int hi = Character.digit(id.charAt(2 * k), 16);
+            int lo = Character.digit(id.charAt(2 * k + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[k] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    // returns RAW written in lower-case hex
+    static String toHex(byte[] raw) {
+        StringBuilder result = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/* Writes a new pack in the format read by PackFile. Objects are added in
+   order; a delta may only refer to an object added before it. The pack only
+   becomes visible, under its final name, once finish() has written it and
+   its index. */
+class PackWriter {
+
+    // directory of the packs
+    private final File dir;
+    // the pack being written
+    private final File temp;
+    // stream onto the pack being written
+    private final DataOutputStream out;
+    // number of bytes written so far
+    private long position;
+    // offsets of the records written so far, by id, in id order
+    private final TreeMap<String, Long> offsets = new TreeMap<>();
+    // compressor reused for every record
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    // Starts a new pack in DIR
+    PackWriter(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        try {
+            temp = File.createTempFile("tmp-", ".pack", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            out.writeInt(PackFile.PACK_MAGIC);
+            out.writeInt(0);
+            position = 8;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // adds the object ID, stored whole
+    void addFull(String id, byte[] content) {
+        write(id, PackFile.FULL, -1, content);
+    }
+
+    // adds the object ID as DELTA against the earlier object BASEID
+    void addDelta(String id, String baseID, byte[] delta) {
+        write(id, PackFile.DELTA, offsets.get(baseID), delta);
+    }
+
+    // writes one record holding PAYLOAD
+    private void write(String id, int type, long baseOffset, byte[] payload) {
+        if (offsets.containsKey(id)) {
+            return;
+        }
+        byte[] stored = deflate(payload);
+        try {
+            offsets.put(id, position);
+            out.writeByte(type);
+            position += 1;
+            if (type == PackFile.DELTA) {
+                out.writeLong(baseOffset);
+                position += 8;
+            }
+            out.writeInt(payload.length);
+            out.writeInt(stored.length);
+            out.write(stored);
+            position += 8 + stored.length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // returns DATA compressed with deflate
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    // Completes the pack and its index and returns the pack, or null if no
+    // object was added
+    File finish() {
+        deflater.end();
+        try {
+            out.close();
+            if (offsets.isEmpty()) {
+                temp.delete();
+                return null;
+            }
+            try (RandomAccessFile header = new RandomAccessFile(temp, "rw")) {
+                header.seek(4);
+                header.writeInt(offsets.size());
+            }
+            String name = "pack-" + Utils.sha1(String.join("\n", offsets.keySet()));
+            File pack = new File(dir, name + ".pack");
+            File tempIndex = File.createTempFile("tmp-", ".idx", dir);
+            try (DataOutputStream idx = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempIndex), 1 << 16))) {
+                idx.writeInt(PackFile.INDEX_MAGIC);
+                idx.writeInt(offsets.size());
+                for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                    idx.write(PackFile.fromHex(entry.getKey()));
+                    idx.writeLong(entry.getValue());
+                }
+            }
+            // the loose blobs are deleted once the pack is in place, so it
+            // must reach the disk first
+            Journal.force(temp);
+            Journal.force(tempIndex);
+            Files.move(temp.toPath(), pack.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempIndex.toPath(), PackFile.indexOf(pack).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Journal.force(dir);
+            return pack;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/* The branches of a repository and the name of the current branch. Every
+   branch is a small file under .gitlet/refs holding the id of its head
+   commit, and .gitlet/HEAD holds the name of the current branch. A branch
+   fetched from a remote is named REMOTE/BRANCH, and its file lives in a
+   subdirectory of .gitlet/refs named after the remote. Updates
+   are kept in memory until flush() so that a command writes only the refs
+   it changed, and are then written through the journal.
+
+   Another process may move a branch while this one works from it, so the
+   value each ref had when this process first read it is kept. lock() takes
+   the lock of every ref about to be written and checks that it still holds
+   that value, which makes each update a compare-and-swap. Branches are
+   locked one by one, so processes updating different branches do not wait
+   for each other. */
+public class Refs {
+
+    // directory of the branch files
+    private final File refsDir;
+    // file holding the name of the current branch
+    private final File headFile;
+    // branch updates not yet written; a null value marks a deleted branch
+    private final Map<String, String> pending = new HashMap<>();
+    // name of the current branch, read lazily
+    private String currentBranch;
+    // true if the current branch was switched since the last flush
+    private boolean headChanged;
+    // the value of each ref read since the last flush or refresh as this
+    // process first read it, null for a missing one, and the same for HEAD
+    private final Map<String, String> observed = new HashMap<>();
+    private String observedHead;
+    // journal that updates are written through
+    private final Journal journal;
+
+    // Constructor
+    public Refs(File gitletDir, Journal journal) {
+        refsDir = Utils.join(gitletDir, "refs");
+        headFile = Utils.join(gitletDir, "HEAD");
+        this.journal = journal;
+    }
+
+    // returns the id of the head commit of the branch NAME, or null
+    public String get(String name) {
+        if (pending.containsKey(name)) {
+            return pending.get(name);
+        }
+        String id = readStored(name);
+        if (!observed.containsKey(name)) {
+            observed.put(name, id);
+        }
+        return id;
+    }
+
+    // returns the id stored in the file of the branch NAME, or null
+    private String readStored(String name) {
+        File ref = Utils.join(refsDir, name);
+        if (!ref.isFile()) {
+            return null;
+        }
+        return new String(Utils.readContents(ref), StandardCharsets.UTF_8);
+    }
+
+    // returns the name stored in HEAD, or null if there is none
+    private String readHead() {
+        if (!headFile.isFile()) {
+            return null;
+        }
+        return new String(Utils.readContents(headFile), StandardCharsets.UTF_8);
+    }
+
+    // returns true if the branch NAME exists
+    public boolean exists(String name) {
+        return get(name) != null;
+    }
+
+    // points the branch NAME at the commit with the given id
+    public void put(String name, String id) {
+        get(name);
+        pending.put(name, id);
+    }
+
+    // deletes the branch NAME
+    public void remove(String name) {
+        get(name);
+        pending.put(name, null);
+    }
+
+    // returns the names of all branches, those fetched from remotes included
+    public List<String> names() {
+        List<String> result = new ArrayList<>();
+        List<String> stored = new ArrayList<>();
+        List<String> local = Utils.plainFilenamesIn(refsDir);
+        if (local != null) {
+            stored.addAll(local);
+        }
+        File[] remotes = refsDir.listFiles(File::isDirectory);
+        for (File remote : remotes == null ? new File[0] : remotes) {
+            for (String name : Utils.plainFilenamesIn(remote)) {
+                stored.add(remote.getName() + "/" + name);
+            }
+        }
+        for (String name : stored) {
+            if (!pending.containsKey(name)) {
+                result.add(name);
+            }
+        }
+        for (String name : pending.keySet()) {
+            if (pending.get(name) != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    // returns the name of the current branch
+    public String currentBranch() {
+        if (currentBranch == null) {
+            currentBranch = readHead();
+            observedHead = currentBranch;
+        }
+        return currentBranch;
+    }
+
+    // makes NAME the current branch
+    public void setCurrentBranch(String name) {
+        if (!name.equals(currentBranch)) {
+            currentBranch = name;
+            headChanged = true;
+        }
+    }
+
+    // drops the updates not yet written and forgets the current branch,
+    // so that both are read again from disk
+    public void refresh() {
+        pending.clear();
+        observed.clear();
+        currentBranch = null;
+        observedHead = null;
+        headChanged = false;
+    }
+
+    // Locks the refs changed since the last flush, and HEAD if the current
+    // branch was switched, always in the same order so that processes cannot
+    // deadlock; the journal releases them. Returns a description of the
+    // first one another process changed since this one read it, or null if
+    // there is none. A ref changed to the value this process would write
+    // does not count.
+    public String lock() {
+        for (String name : new TreeSet<>(pending.keySet())) {
+            journal.lock(Utils.join(refsDir, name));
+            String stored = readStored(name);
+            if (!Objects.equals(stored, observed.get(name))
+                    && !Objects.equals(stored, pending.get(name))) {
+                return "branch " + name;
+            }
+        }
+        if (headChanged) {
+            journal.lock(headFile);
+            String stored = readHead();
+            if (!Objects.equals(stored, observedHead) && !currentBranch.equals(stored)) {
+                return "the current branch";
+            }
+        }
+        return null;
+    }
+
+    // logs every changed ref in the journal, which writes them on its commit()
+    public void flush() {
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            File ref = Utils.join(refsDir, entry.getKey());
+            journal.update(ref, entry.getValue() == null ? null
+                    : entry.getValue().getBytes(StandardCharsets.UTF_8));
+            observed.put(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+        if (headChanged) {
+            journal.update(headFile, currentBranch.getBytes(StandardCharsets.UTF_8));
+            observedHead = currentBranch;
+            headChanged = false;
+        }
+    }
+}
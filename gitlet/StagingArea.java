@@ -2,44 +2,42 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 public class StagingArea implements Serializable {
 
+    // fixed, so that the stage file of an existing repository still reads
+    // after this class is edited
+    private static final long serialVersionUID = -7543205945667610240L;
+
     // holds all the blobs with key as file names and value as id
     private HashMap<String, String> stage;
-    // directory of blobs
-    private String directory = ".gitlet/blobs";
+    // names of removed files
+    private ArrayList<String> removedFiles = new ArrayList<>();
+    // head of the branch whose merge stopped at a conflict; the next
+    // commit records it as its second parent
+    private String mergeParent;
 
     // constructor
     public StagingArea() {
         stage = new HashMap<String, String>();
-        File path = new File(directory);
-        // creates the directory of blobs
-        path.mkdirs();
     }
 
-    // Clear all the blobs in the list
+    // Clear all the blobs in the list, and forget any merge in progress
     public void clear() {
         stage = new HashMap<String, String>();
+        mergeParent = null;
     }
 
-    //Adds a Blob into the stage list
-    public void add(String filename) {
-        File file = new File(filename);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            return;
-        }
-        byte[] content = Utils.readContents(file);
-        String id = Utils.sha1(content);
-        File blob = new File(directory + "/" + id);
-
-        if (stage.isEmpty() || !stage.containsKey(filename)
-                || !stage.get(filename).equals(id)) {
-            stage.put(filename, id);
-            Utils.writeContents(blob, content);
+    //Adds a Blob into the stage list. ID is the blob id of the file's
+    //contents, which are copied into BLOBS only if they are new; the id
+    //found while copying them is the one staged
+    public void add(String filename, String id, BlobStore blobs) {
+        if (!blobs.contains(id)) {
+            id = blobs.writeFile(new File(filename));
         }
+        stage.put(filename, id);
     }
 
     // returns all the blobs in the staging area
@@ -47,6 +45,21 @@ public class StagingArea implements Serializable {
         return stage;
     }
 
+    // returns the names of removed files
+    public ArrayList<String> getRemovedFiles() {
+        return removedFiles;
+    }
+
+    // returns the id of the commit being merged, or null
+    public String getMergeParent() {
+        return mergeParent;
+    }
+
+    // records ID as the commit being merged
+    public void setMergeParent(String id) {
+        mergeParent = id;
+    }
+
     // Removes Blob b from the stage list
     public HashMap<String, String> remove(String filename) {
         stage.remove(filename);
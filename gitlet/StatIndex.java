@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* A cache of the blob ids of working files, stored in .gitlet/index. Each
+   entry records the size, modification time and inode a file had when its
+   blob id was last computed or written; while those still match, the id is
+   reused without reading the file.
+
+   A file changed within the timestamp granularity of the moment its entry
+   was recorded could look unchanged afterwards, so such "racy" entries are
+   never trusted and the file is hashed again. */
+public class StatIndex {
+
+    // entries recorded less than this long after the file was modified are racy
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /* The state of one working file. */
+    static class Entry implements Serializable {
+        // fixed so that a change to the class does not discard the cache
+        private static final long serialVersionUID = 468160078438701500L;
+
+        // size of the file in bytes
+        private final long size;
+        // modification time in nanoseconds
+        private final long mtime;
+        // identity of the file on disk, such as device and inode numbers
+        private final String inode;
+        // id of the blob holding the contents of the file
+        private final String blobID;
+        // time the entry was recorded, in nanoseconds
+        private final long recorded;
+
+        Entry(long size, long mtime, String inode, String blobID, long recorded) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.blobID = blobID;
+            this.recorded = recorded;
+        }
+
+        // returns true if ATTRS describe the file as it was when recorded
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size
+                    && attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) == mtime
+                    && inode.equals(inodeOf(attrs))
+                    && recorded - mtime >= RACY_NANOS;
+        }
+
+        // get the blob id of this entry
+        String getBlobID() {
+            return blobID;
+        }
+    }
+
+    // file the index is stored in
+    private final File file;
+    // entries by path
+    private final HashMap<String, Entry> entries;
+    // true if the entries changed since they were read
+    private boolean changed;
+
+    // Constructor
+    private StatIndex(File file, HashMap<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    // reads the index of the repository in GITLETDIR, or starts an empty one
+    public static StatIndex load(File gitletDir) {
+        File file = Utils.join(gitletDir, "index");
+        HashMap<String, Entry> entries = new HashMap<>();
+        if (file.isFile()) {
+            try {
+                entries = Utils.readObject(file, Index.class).entries;
+            } catch (IllegalArgumentException excp) {
+                // an unreadable cache only costs rehashing
+                entries = new HashMap<>();
+            }
+        }
+        return new StatIndex(file, entries);
+    }
+
+    /* The serialized form of the index. */
+    private static class Index implements Serializable {
+        // fixed so that a change to the class does not discard the cache
+        private static final long serialVersionUID = -7360758881713363418L;
+
+        // entries by path
+        private final HashMap<String, Entry> entries;
+
+        Index(HashMap<String, Entry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    // Returns the blob id of the working file PATH, hashing it only if it
+    // changed since it was last recorded. Returns null if it does not exist.
+    public String blobID(String path) {
+        File working = new File(path);
+        BasicFileAttributes attrs = stat(working);
+        if (attrs == null || !attrs.isRegularFile()) {
+            remove(path);
+            return null;
+        }
+        Entry entry = entries.get(path);
+        if (entry != null && entry.matches(attrs)) {
+            return entry.getBlobID();
+        }
+        String id = Utils.sha1(working);
+        record(path, attrs, id);
+        return id;
+    }
+
+    // Returns the blob ids of the working files PATHS, keyed by path, leaving
+    // out the files that do not exist. The files changed since they were
+    // last recorded are hashed together, on all the available processors.
+    public Map<String, String> blobIDs(Collection<String> paths) {
+        Map<String, String> result = new HashMap<>();
+        List<String> changed = new ArrayList<>();
+        List<BasicFileAttributes> changedAttrs = new ArrayList<>();
+        for (String path : paths) {
+            BasicFileAttributes attrs = stat(new File(path));
+            Entry entry = entries.get(path);
+            if (attrs == null || !attrs.isRegularFile()) {
+                remove(path);
+            } else if (entry != null && entry.matches(attrs)) {
+                result.put(path, entry.getBlobID());
+            } else {
+                changed.add(path);
+                changedAttrs.add(attrs);
+            }
+        }
+        File[] files = new File[changed.size()];
+        for (int i = 0; i < files.length; i += 1) {
+            files[i] = new File(changed.get(i));
+        }
+        String[] ids = Utils.sha1(files);
+        for (int i = 0; i < ids.length; i += 1) {
+            record(changed.get(i), changedAttrs.get(i), ids[i]);
+            result.put(changed.get(i), ids[i]);
+        }
+        return result;
+    }
+
+    // records that the working file PATH now holds the blob ID
+    public void update(String path, String id) {
+        BasicFileAttributes attrs = stat(new File(path));
+        if (attrs == null) {
+            remove(path);
+        } else {
+            record(path, attrs, id);
+        }
+    }
+
+    // forgets the file PATH
+    public void remove(String path) {
+        if (entries.remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    // Writes the index to disk if it changed, through a temporary file so
+    // that a process reading it meanwhile sees the old index or the new one.
+    public void save() {
+        if (changed) {
+            try {
+                File temp = File.createTempFile("tmp-", ".index", file.getParentFile());
+                Utils.writeObject(temp, new Index(entries));
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            changed = false;
+        }
+    }
+
+    // stores an entry for PATH
+    private void record(String path, BasicFileAttributes attrs, String id) {
+        entries.put(path, new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                inodeOf(attrs), id, System.currentTimeMillis() * 1_000_000L));
+        changed = true;
+    }
+
+    // returns the attributes of FILE, or null if it does not exist
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    // returns the identity of the file described by ATTRS
+    private static String inodeOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* A directory snapshot. Files in the directory map to blob ids and
+   subdirectories map to the ids of their own TreeObjects, so a tree id
+   identifies the whole content below it and unchanged subtrees are shared
+   between commits.
+
+   A directory with more entries than fit in one object is sharded: its
+   entries are spread over child TreeObjects by a hex digit of the hash of
+   their names, so a change rewrites only the shards along its path. */
+public class TreeObject implements Serializable {
+
+    // fixed at the value computed for the fields below, so that the trees
+    // already stored stay readable however the class changes
+    private static final long serialVersionUID = 6516591118436428033L;
+
+    // id of this tree
+    private final String id;
+
+    // files directly in this directory, by name, mapped to their blob ids
+    private final TreeMap<String, String> blobs;
+
+    // subdirectories, by name, mapped to their tree ids
+    private final TreeMap<String, String> trees;
+
+    // for a sharded directory, the ids of its shards by hex digit; else empty
+    private final TreeMap<String, String> shards;
+
+    // number of entries in this directory, including those held in shards
+    private final int size;
+
+    // Constructor
+    public TreeObject(TreeMap<String, String> blobs, TreeMap<String, String> trees) {
+        this(blobs, trees, new TreeMap<>(), blobs.size() + trees.size());
+    }
+
+    // Constructor for a sharded directory of SIZE entries
+    public TreeObject(TreeMap<String, String> shards, int size) {
+        this(new TreeMap<>(), new TreeMap<>(), shards, size);
+    }
+
+    private TreeObject(TreeMap<String, String> blobs, TreeMap<String, String> trees,
+                       TreeMap<String, String> shards, int size) {
+        this.blobs = blobs;
+        this.trees = trees;
+        this.shards = shards;
+        this.size = size;
+        id = hash();
+    }
+
+    // Returns the id the entries of this tree hash to. It is the id of this
+    // tree unless the tree was damaged after it was made.
+    public String hash() {
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            entries.append("blob ").append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, String> entry : trees.entrySet()) {
+            entries.append("tree ").append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, String> entry : shards.entrySet()) {
+            entries.append("shard ").append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+        return Utils.sha1("tree\n", entries.toString());
+    }
+
+    // get the ID of this tree
+    public String getID() {
+        return id;
+    }
+    // get the files of this directory
+    public TreeMap<String, String> getBlobs() {
+        return blobs;
+    }
+    // get the subdirectories of this directory
+    public TreeMap<String, String> getTrees() {
+        return trees;
+    }
+    // get the shards of this directory
+    public TreeMap<String, String> getShards() {
+        return shards;
+    }
+    // returns true if the entries of this directory are held in shards
+    public boolean isSharded() {
+        return !shards.isEmpty();
+    }
+    // get the number of entries of this directory
+    public int size() {
+        return size;
+    }
+    // returns true if this tree has no entries
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
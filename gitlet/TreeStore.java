@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/* Reads and writes the TreeObjects of a repository. Paths are relative to
+   the working directory and use '/' between directory names.
+
+   The root tree of a directory is either a plain TreeObject or, once the
+   directory has more than SPLIT entries, a sharded one; shards at depth d
+   group entries by hex digit d of the hash of their names and are split
+   again in the same way when they grow past SPLIT. A directory or shard is
+   sharded exactly when it has more than SPLIT entries, however it got
+   there, so the id of a tree depends only on what it holds. */
+public class TreeStore {
+
+    // the tree with no entries
+    private static final TreeObject EMPTY = new TreeObject(new TreeMap<>(), new TreeMap<>());
+    // most entries of a directory held in a single object
+    private static final int SPLIT = 256;
+
+    // Store of all trees, keyed by ID
+    private final ObjectStore trees;
+    // Map that caches the trees read so far, keyed by ID
+    private final Map<String, TreeObject> cache = new HashMap<>();
+    // Map that caches flattened trees, keyed by ID
+    private final Map<String, HashMap<String, String>> flattened = new HashMap<>();
+
+    // Constructor
+    public TreeStore(File gitletDir, Journal journal) {
+        trees = new ObjectStore(gitletDir, "trees", journal);
+    }
+
+    // Adds to LIVE the trees ROOTS and every tree below them, and to BLOBS
+    // the ids of the blobs they hold. The trees are read in parallel, a
+    // level at a time, and each shared subtree only once; LIVE and BLOBS
+    // must be safe to add to from several threads.
+    public void mark(Collection<String> roots, Set<String> live, Set<String> blobs) {
+        List<String> level = new ArrayList<>();
+        for (String id : roots) {
+            if (live.add(id)) {
+                level.add(id);
+            }
+        }
+        while (!level.isEmpty()) {
+            level = level.parallelStream().flatMap(id -> {
+                TreeObject tree = trees.get(id, TreeObject.class);
+                if (tree == null) {
+                    throw new IllegalArgumentException("missing tree " + id);
+                }
+                blobs.addAll(tree.getBlobs().values());
+                List<String> children = new ArrayList<>(tree.getTrees().values());
+                children.addAll(tree.getShards().values());
+                return children.stream();
+            }).filter(live::add).collect(Collectors.toList());
+        }
+    }
+
+    // Reads every tree in parallel and passes each whose entries hash to its
+    // id to CHECK, along with the id; the ids of the others go to DAMAGED.
+    // Adds the bytes read to READ and returns the number of trees.
+    public int verify(BiConsumer<String, TreeObject> check, Consumer<String> damaged, AtomicLong read) {
+        return trees.verify(TreeObject.class, (id, tree) -> {
+            if (isIntact(id, tree)) {
+                check.accept(id, tree);
+            } else {
+                damaged.accept(id);
+            }
+        }, damaged, read);
+    }
+
+    // returns true if TREE is stored as ID and its entries hash to ID
+    static boolean isIntact(String id, TreeObject tree) {
+        return id.equals(tree.getID()) && id.equals(tree.hash());
+    }
+
+    // stores TREE, received whole from another repository
+    public void put(TreeObject tree) {
+        trees.put(tree.getID(), tree);
+    }
+
+    // Deletes the trees not in LIVE last modified before CUTOFF, in
+    // milliseconds, and returns how many. Adds the bytes freed to FREED.
+    public int sweep(Set<String> live, long cutoff, AtomicLong freed) {
+        cache.keySet().retainAll(live);
+        flattened.keySet().retainAll(live);
+        return trees.sweep(live, cutoff, freed);
+    }
+
+    // returns the id of the empty tree, storing it if needed
+    public String emptyTree() {
+        trees.put(EMPTY.getID(), EMPTY);
+        return EMPTY.getID();
+    }
+
+    // returns the tree with the given id; a null id denotes the empty tree
+    public TreeObject get(String id) {
+        if (id == null) {
+            return EMPTY;
+        }
+        TreeObject tree = cache.get(id);
+        if (tree == null) {
+            tree = trees.get(id, TreeObject.class);
+            if (tree == null) {
+                throw new IllegalArgumentException("missing tree " + id);
+            }
+            cache.put(id, tree);
+        }
+        return tree;
+    }
+
+    // returns true if the tree with the given id is stored
+    public boolean contains(String id) {
+        return cache.containsKey(id) || trees.contains(id);
+    }
+
+    // Returns the id of the tree that results from applying CHANGES to the
+    // tree BASE. CHANGES maps paths to their new blob ids, or to null for
+    // paths to delete. Only the directories and shards along changed paths
+    // are written; every other subtree is shared with BASE.
+    public String write(String base, Map<String, String> changes) {
+        String id = apply(base, changes, 0);
+        return id == null ? emptyTree() : id;
+    }
+
+    // applies CHANGES to the tree ID, a directory or a shard at DEPTH,
+    // returning null if the result is empty
+    private String apply(String id, Map<String, String> changes, int depth) {
+        TreeObject tree = get(id);
+        if (tree.isSharded()) {
+            Map<String, Map<String, String>> byShard = new HashMap<>();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                String key = shardKey(firstName(change.getKey()), depth);
+                byShard.computeIfAbsent(key, k -> new HashMap<>())
+                        .put(change.getKey(), change.getValue());
+            }
+            TreeMap<String, String> shards = new TreeMap<>(tree.getShards());
+            int size = tree.size();
+            for (Map.Entry<String, Map<String, String>> shard : byShard.entrySet()) {
+                String old = shards.get(shard.getKey());
+                String updated = apply(old, shard.getValue(), depth + 1);
+                size += sizeOf(updated) - sizeOf(old);
+                if (updated == null) {
+                    shards.remove(shard.getKey());
+                } else {
+                    shards.put(shard.getKey(), updated);
+                }
+            }
+            if (size > SPLIT) {
+                return store(new TreeObject(shards, size), id);
+            }
+            // small enough again for a single object
+            TreeMap<String, String> blobs = new TreeMap<>();
+            TreeMap<String, String> subtrees = new TreeMap<>();
+            for (String shard : shards.values()) {
+                collect(shard, blobs, subtrees);
+            }
+            return build(blobs, subtrees, depth, id);
+        }
+        TreeMap<String, String> blobs = new TreeMap<>(tree.getBlobs());
+        TreeMap<String, String> subtrees = new TreeMap<>(tree.getTrees());
+        Map<String, Map<String, String>> subChanges = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                blobs.remove(path);
+            } else {
+                blobs.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sub : subChanges.entrySet()) {
+            String newSub = apply(subtrees.get(sub.getKey()), sub.getValue(), 0);
+            if (newSub == null) {
+                subtrees.remove(sub.getKey());
+            } else {
+                subtrees.put(sub.getKey(), newSub);
+            }
+        }
+        return build(blobs, subtrees, depth, id);
+    }
+
+    // Stores the entries BLOBS and SUBTREES of a directory or shard at DEPTH,
+    // sharding them if there are too many, and returns the id of the result,
+    // or null if there are none. OLD is the id the entries replace.
+    private String build(TreeMap<String, String> blobs, TreeMap<String, String> subtrees,
+                         int depth, String old) {
+        int size = blobs.size() + subtrees.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size <= SPLIT) {
+            return store(new TreeObject(blobs, subtrees), old);
+        }
+        Map<String, TreeMap<String, String>> shardBlobs = new TreeMap<>();
+        Map<String, TreeMap<String, String>> shardTrees = new TreeMap<>();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            shardBlobs.computeIfAbsent(shardKey(entry.getKey(), depth), k -> new TreeMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : subtrees.entrySet()) {
+            shardTrees.computeIfAbsent(shardKey(entry.getKey(), depth), k -> new TreeMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        TreeSet<String> keys = new TreeSet<>(shardBlobs.keySet());
+        keys.addAll(shardTrees.keySet());
+        TreeMap<String, String> shards = new TreeMap<>();
+        for (String key : keys) {
+            shards.put(key, build(shardBlobs.getOrDefault(key, new TreeMap<>()),
+                    shardTrees.getOrDefault(key, new TreeMap<>()), depth + 1, null));
+        }
+        return store(new TreeObject(shards, size), old);
+    }
+
+    // stores TREE unless it is the tree OLD, and returns its id
+    private String store(TreeObject tree, String old) {
+        if (!tree.getID().equals(old)) {
+            trees.put(tree.getID(), tree);
+            cache.put(tree.getID(), tree);
+        }
+        return tree.getID();
+    }
+
+    // returns the number of entries of the tree ID, or 0 if ID is null
+    private int sizeOf(String id) {
+        return id == null ? 0 : get(id).size();
+    }
+
+    // adds the entries of the directory or shard ID to BLOBS and SUBTREES
+    private void collect(String id, Map<String, String> blobs, Map<String, String> subtrees) {
+        TreeObject tree = get(id);
+        blobs.putAll(tree.getBlobs());
+        subtrees.putAll(tree.getTrees());
+        for (String shard : tree.getShards().values()) {
+            collect(shard, blobs, subtrees);
+        }
+    }
+
+    // returns the shard, at DEPTH, of the entry called NAME
+    private static String shardKey(String name, int depth) {
+        return Utils.sha1(name).substring(depth, depth + 1);
+    }
+
+    // returns the first component of PATH
+    private static String firstName(String path) {
+        int slash = path.indexOf('/');
+        return slash < 0 ? path : path.substring(0, slash);
+    }
+
+    // Returns every file below the tree ID, mapped to its blob id. The
+    // result is cached and must not be modified.
+    public HashMap<String, String> flatten(String id) {
+        HashMap<String, String> result = flattened.get(id);
+        if (result == null) {
+            result = new HashMap<>();
+            flatten(id, "", result);
+            flattened.put(id, result);
+        }
+        return result;
+    }
+
+    // adds the files below the tree ID to RESULT, prefixing their names with PREFIX
+    private void flatten(String id, String prefix, Map<String, String> result) {
+        TreeObject tree = get(id);
+        for (Map.Entry<String, String> entry : tree.getBlobs().entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.getTrees().entrySet()) {
+            flatten(entry.getValue(), prefix + entry.getKey() + "/", result);
+        }
+        for (String shard : tree.getShards().values()) {
+            flatten(shard, prefix, result);
+        }
+    }
+
+    // returns the part of the directory ID that holds the entry NAME
+    private TreeObject holderOf(String id, String name) {
+        TreeObject tree = get(id);
+        for (int depth = 0; tree.isSharded(); depth += 1) {
+            String shard = tree.getShards().get(shardKey(name, depth));
+            if (shard == null) {
+                return EMPTY;
+            }
+            tree = get(shard);
+        }
+        return tree;
+    }
+
+    // returns the blob id of PATH in the tree ID, or null if it is not there
+    public String lookup(String id, String path) {
+        HashMap<String, String> cached = flattened.get(id);
+        if (cached != null) {
+            return cached.get(path);
+        }
+        String dir = id;
+        int start = 0;
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            String name = path.substring(start, slash);
+            dir = holderOf(dir, name).getTrees().get(name);
+            if (dir == null) {
+                return null;
+            }
+            start = slash + 1;
+            slash = path.indexOf('/', start);
+        }
+        String name = path.substring(start);
+        return holderOf(dir, name).getBlobs().get(name);
+    }
+
+    // Returns the paths whose blob ids differ between the trees FROM and TO,
+    // in path order, mapped to {id in FROM, id in TO} (null where the path is
+    // absent). Subtrees and shards with equal ids are skipped without being read.
+    public TreeMap<String, String[]> diff(String from, String to) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    // adds the differences between the trees FROM and TO to RESULT
+    private void diff(String from, String to, String prefix, Map<String, String[]> result) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        TreeObject a = get(from);
+        TreeObject b = get(to);
+        if (a.isSharded() && b.isSharded()) {
+            // shards of the same directory at the same depth line up
+            TreeSet<String> keys = new TreeSet<>(a.getShards().keySet());
+            keys.addAll(b.getShards().keySet());
+            for (String key : keys) {
+                diff(a.getShards().get(key), b.getShards().get(key), prefix, result);
+            }
+            return;
+        }
+        TreeMap<String, String> blobsA = new TreeMap<>();
+        TreeMap<String, String> treesA = new TreeMap<>();
+        TreeMap<String, String> blobsB = new TreeMap<>();
+        TreeMap<String, String> treesB = new TreeMap<>();
+        collect(from, blobsA, treesA);
+        collect(to, blobsB, treesB);
+        TreeSet<String> names = new TreeSet<>(blobsA.keySet());
+        names.addAll(blobsB.keySet());
+        for (String name : names) {
+            String x = blobsA.get(name);
+            String y = blobsB.get(name);
+            if (!Objects.equals(x, y)) {
+                result.put(prefix + name, new String[]{x, y});
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<>(treesA.keySet());
+        dirs.addAll(treesB.keySet());
+        for (String dir : dirs) {
+            diff(treesA.get(dir), treesB.get(dir), prefix + dir + "/", result);
+        }
+    }
+}
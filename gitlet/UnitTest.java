@@ -3,6 +3,24 @@ package gitlet;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
 /* The suite of all JUnit tests for the gitlet package.
    @author
  */
@@ -12,6 +30,527 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
-}
+    // returns a new empty directory to hold the files of a repository
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-test").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    // returns the bytes of TEXT
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // returns what RUN prints
+    private static String output(Runnable run) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            run.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        return captured.toString();
+    }
+
+    // returns a tree diff holding one change of PATH from FROM to TO
+    private static TreeMap<String, String[]> change(String path, String from, String to) {
+        TreeMap<String, String[]> diff = new TreeMap<>();
+        diff.put(path, new String[] {from, to});
+        return diff;
+    }
+
+    // returns the changes adding the files 0 to COUNT - 1 of a directory
+    private static HashMap<String, String> files(int count) {
+        HashMap<String, String> changes = new HashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            changes.put("dir/" + i, Utils.sha1("blob " + i));
+        }
+        return changes;
+    }
+
+    // returns the tree of the directory dir in the tree ROOT of TREES
+    private static TreeObject dirOf(TreeStore trees, String root) {
+        return trees.get(trees.get(root).getTrees().get("dir"));
+    }
+
+    @Test
+    public void treeIsShardedPastSplit() throws IOException {
+        File dir = tempDir();
+        TreeStore trees = new TreeStore(dir, new Journal(dir));
+        String empty = trees.emptyTree();
+        assertFalse(dirOf(trees, trees.write(empty, files(256))).isSharded());
+        assertTrue(dirOf(trees, trees.write(empty, files(257))).isSharded());
+    }
+
+    @Test
+    public void treeIdDependsOnlyOnItsEntries() throws IOException {
+        File dir = tempDir();
+        TreeStore trees = new TreeStore(dir, new Journal(dir));
+        String empty = trees.emptyTree();
+        String big = trees.write(empty, files(300));
+        // shrinking back to SPLIT entries merges the shards again
+        HashMap<String, String> removed = new HashMap<>();
+        for (int i = 256; i < 300; i += 1) {
+            removed.put("dir/" + i, null);
+        }
+        String shrunk = trees.write(big, removed);
+        assertEquals(trees.write(empty, files(256)), shrunk);
+        assertFalse(dirOf(trees, shrunk).isSharded());
+        // and growing past it splits them as writing it whole does
+        HashMap<String, String> added = new HashMap<>();
+        added.put("dir/256", Utils.sha1("blob 256"));
+        assertEquals(trees.write(empty, files(257)), trees.write(shrunk, added));
+    }
+
+    // returns the merge of OURS and THEIRS, two versions of BASE
+    private static String merge3(String base, String ours, String theirs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Merge3.merge(bytes(base), bytes(ours), bytes(theirs), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void diffPairsTheCommonElements() {
+        assertArrayEquals(new int[] {0, -1, 1, 3}, Diff.match(new int[] {1, 2, 3, 4},
+                new int[] {1, 3, 5, 4}));
+        assertArrayEquals(new int[] {-1, -1}, Diff.match(new int[] {1, 2}, new int[] {3}));
+    }
+
+    @Test
+    public void mergeTakesTheChangesOfBothSides() throws IOException {
+        assertEquals("a\nB\nc\nD\ne\n",
+                merge3("a\nb\nc\nd\ne\n", "a\nB\nc\nd\ne\n", "a\nb\nc\nD\ne\n"));
+    }
+
+    @Test
+    public void mergeMarksOverlappingChanges() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int conflicts = Merge3.merge(bytes("a\nb\nc\n"), bytes("a\nours\nc\n"),
+                bytes("a\ntheirs\nc\n"), out);
+        assertEquals(1, conflicts);
+        assertEquals("a\n<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\nc\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void mergeChangesAtTheStartAndTheEnd() throws IOException {
+        assertEquals("first\nb\nc\nlast",
+                merge3("a\nb\nc\n", "first\nb\nc\n", "a\nb\nc\nlast"));
+        assertEquals("b\nc\nd\n", merge3("a\nb\nc\n", "b\nc\n", "a\nb\nc\nd\n"));
+    }
+
+    @Test
+    public void mergePlanOneSided() {
+        TreeMap<String, String[]> ours = change("a", "1", "2");
+        TreeMap<String, String[]> theirs = change("b", "1", "3");
+        theirs.put("c", new String[] {null, "4"});
+        theirs.put("d", new String[] {"5", null});
+        List<MergePlan.Step> plan = MergePlan.plan(ours, theirs);
+        assertEquals("[TAKE_OURS a, TAKE_THEIRS b, ADD c, DELETE d]", plan.toString());
+        assertEquals("3", plan.get(1).theirs);
+    }
+
+    @Test
+    public void mergePlanBothSides() {
+        TreeMap<String, String[]> ours = change("a", "1", "2");
+        ours.put("b", new String[] {"1", "3"});
+        ours.put("c", new String[] {"1", null});
+        TreeMap<String, String[]> theirs = change("a", "1", "2");
+        theirs.put("b", new String[] {"1", "4"});
+        theirs.put("c", new String[] {"1", "5"});
+        List<MergePlan.Step> plan = MergePlan.plan(ours, theirs);
+        assertEquals("[TAKE_OURS a, CONFLICT b, CONFLICT c]", plan.toString());
+        assertEquals("1", plan.get(1).split);
+        assertNull(plan.get(2).ours);
+    }
+
+    @Test
+    public void mergePlanNothingChanged() {
+        assertTrue(MergePlan.plan(new TreeMap<>(), new TreeMap<>()).isEmpty());
+    }
+
+    // returns LINES numbered lines of text, each starting with PREFIX
+    private static byte[] numbered(String prefix, int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            text.append(prefix).append(" line ").append(i).append('\n');
+        }
+        return bytes(text.toString());
+    }
+
+    // returns a new commit of PARENT and SECONDPARENT, stored in COMMITS
+    private static String commit(HashMap<String, CommitObject> commits, String parent,
+                                 String secondParent, String message) {
+        CommitObject commit = new CommitObject(parent, secondParent, message, Utils.sha1(message));
+        commits.put(commit.getID(), commit);
+        return commit.getID();
+    }
+
+    @Test
+    public void commitGraphNumbersGenerations() throws IOException {
+        File dir = tempDir();
+        HashMap<String, CommitObject> commits = new HashMap<>();
+        String root = commit(commits, null, null, "root");
+        String a = commit(commits, root, null, "a");
+        String b = commit(commits, a, null, "b");
+        String c = commit(commits, a, null, "c");
+        CommitGraph graph = CommitGraph.load(dir, commits::get);
+        graph.add(commits.get(b));
+        graph.add(commits.get(c));
+        assertEquals(1, graph.generationAt(graph.position(root)));
+        assertEquals(3, graph.generationAt(graph.position(b)));
+        assertEquals(3, graph.generationAt(graph.position(c)));
+        graph.save();
+        // the saved graph answers without reading any commit
+        CommitGraph reopened = CommitGraph.load(dir, id -> null);
+        assertEquals(4, reopened.size());
+        assertEquals(reopened.position(a), reopened.parentAt(reopened.position(c)));
+        assertTrue(reopened.isAncestor(root, b));
+        assertTrue(reopened.isAncestor(b, b));
+        assertFalse(reopened.isAncestor(b, c));
+        assertFalse(reopened.isAncestor(c, a));
+        assertEquals(List.of(a), reopened.mergeBases(b, c));
+        assertEquals(List.of(a), reopened.mergeBases(a, c));
+    }
+
+    @Test
+    public void commitGraphFollowsSecondParents() throws IOException {
+        HashMap<String, CommitObject> commits = new HashMap<>();
+        String root = commit(commits, null, null, "root");
+        String x = commit(commits, root, null, "x");
+        String y1 = commit(commits, root, null, "y1");
+        String y2 = commit(commits, y1, null, "y2");
+        // a criss-cross: each branch merges the other
+        String m1 = commit(commits, x, y2, "m1");
+        String m2 = commit(commits, y2, x, "m2");
+        CommitGraph graph = CommitGraph.load(tempDir(), commits::get);
+        graph.add(commits.get(m1));
+        graph.add(commits.get(m2));
+        // one more than the deeper of the two parents
+        assertEquals(4, graph.generationAt(graph.position(m1)));
+        assertEquals(graph.position(y2), graph.secondParentAt(graph.position(m1)));
+        assertTrue(graph.isAncestor(y1, m1));
+        assertTrue(graph.isAncestor(x, m2));
+        assertFalse(graph.isAncestor(m1, m2));
+        List<String> bases = new ArrayList<>(graph.mergeBases(m1, m2));
+        bases.sort(null);
+        List<String> expected = new ArrayList<>(List.of(x, y2));
+        expected.sort(null);
+        assertEquals(expected, bases);
+    }
 
+    @Test
+    public void commitIndexFindsIdsByPrefix() throws IOException {
+        File dir = tempDir();
+        ObjectStore commits = new ObjectStore(dir, "commits", new Journal(dir));
+        CommitIndex index = CommitIndex.load(dir, commits);
+        String a = "ab" + Utils.sha1("a").substring(2);
+        String b = "ab" + Utils.sha1("b").substring(2);
+        String c = "cd" + Utils.sha1("c").substring(2);
+        index.add(a);
+        index.add(b);
+        index.save();
+        CommitIndex reopened = CommitIndex.load(dir, commits);
+        reopened.add(c);
+        List<String> both = new ArrayList<>(List.of(a, b));
+        both.sort(null);
+        assertEquals(both, reopened.matches("ab", 10, commits));
+        assertEquals(1, reopened.matches("ab", 1, commits).size());
+        assertEquals(List.of(c), reopened.matches("cd", 10, commits));
+        assertTrue(reopened.matches("ef", 10, commits).isEmpty());
+        assertTrue(reopened.matches("not hex", 10, commits).isEmpty());
+    }
+
+    @Test
+    public void commitIndexMergesALongTail() throws IOException {
+        File dir = tempDir();
+        ObjectStore commits = new ObjectStore(dir, "commits", new Journal(dir));
+        CommitIndex index = CommitIndex.load(dir, commits);
+        index.save();
+        for (int i = 0; i < 1100; i += 1) {
+            index.add(Utils.sha1("commit " + i));
+        }
+        index.save();
+        // the ids are one sorted run again
+        File file = Utils.join(dir, "commit-index");
+        assertEquals(1100, ByteBuffer.wrap(Utils.readContents(file)).getInt(4));
+        CommitIndex reopened = CommitIndex.load(dir, commits);
+        assertEquals(1100, reopened.size());
+        String id = Utils.sha1("commit 500");
+        assertEquals(List.of(id), reopened.matches(id.substring(0, 8), 10, commits));
+    }
+
+    @Test
+    public void commitIndexIsRebuiltForCommitsItLacks() throws IOException {
+        File dir = tempDir();
+        ObjectStore commits = new ObjectStore(dir, "commits", new Journal(dir));
+        CommitIndex.load(dir, commits).save();
+        // a commit written by a program that does not keep the index
+        String id = Utils.sha1("unindexed");
+        commits.put(id, "commit");
+        assertEquals(List.of(id), CommitIndex.load(dir, commits).matches(id.substring(0, 6), 10, commits));
+    }
+
+    // returns LENGTH random bytes, the same for each SEED
+    private static byte[] random(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // returns the number of chunks stored in the repository DIR
+    private static int chunkCount(File dir) throws IOException {
+        try (Stream<Path> files = Files.walk(Utils.join(dir, "chunks").toPath())) {
+            return (int) files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void chunkStoreReassemblesWhatItStored() throws IOException {
+        File dir = tempDir();
+        byte[] data = random(1, 3 << 20);
+        File source = new File(dir, "large");
+        Utils.writeContents(source, data);
+        ChunkStore chunks = new ChunkStore(dir, new Journal(dir));
+        String id = chunks.write(source);
+        assertEquals(Utils.sha1(data), id);
+        assertTrue(chunks.contains(id));
+        assertEquals(data.length, chunks.size(id));
+        try (InputStream in = chunks.open(id)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        List<String> problems = new ArrayList<>();
+        assertEquals(1, chunks.verify(problems::add, new AtomicLong()));
+        assertTrue(problems.isEmpty());
+    }
+
+    @Test
+    public void chunkStoreSharesUnchangedChunks() throws IOException {
+        File dir = tempDir();
+        byte[] data = random(2, 4 << 20);
+        File source = new File(dir, "large");
+        Utils.writeContents(source, data);
+        ChunkStore chunks = new ChunkStore(dir, new Journal(dir));
+        chunks.write(source);
+        int before = chunkCount(dir);
+        assertTrue(before > 1);
+        // an insertion changes only the chunks around it
+        byte[] edited = new byte[data.length + 10];
+        System.arraycopy(data, 0, edited, 0, data.length / 2);
+        System.arraycopy(data, data.length / 2, edited, data.length / 2 + 10, data.length / 2);
+        Utils.writeContents(source, edited);
+        String id = chunks.write(source);
+        assertTrue(chunkCount(dir) - before <= 2);
+        try (InputStream in = chunks.open(id)) {
+            assertArrayEquals(edited, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void deltaRebuildsTheTarget() {
+        byte[] base = numbered("old", 200);
+        String text = new String(base, StandardCharsets.UTF_8);
+        byte[] target = bytes("new first line\n" + text.replace("old line 100\n", "edited\n")
+                + "new last line\n");
+        byte[] delta = Delta.compute(base, target);
+        assertTrue(delta.length < target.length / 10);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertArrayEquals(target, Delta.apply(new byte[0], Delta.compute(new byte[0], target)));
+        assertArrayEquals(new byte[0], Delta.apply(base, Delta.compute(base, new byte[0])));
+    }
+
+    @Test
+    public void packReadsFullAndDeltaRecords() throws IOException {
+        File dir = tempDir();
+        byte[] one = numbered("one", 100);
+        byte[] two = bytes("changed\n" + new String(one, StandardCharsets.UTF_8));
+        byte[] three = bytes(new String(two, StandardCharsets.UTF_8) + "appended\n");
+        String oneID = Utils.sha1(one);
+        String twoID = Utils.sha1(two);
+        String threeID = Utils.sha1(three);
+        PackWriter writer = new PackWriter(dir);
+        writer.addFull(oneID, one);
+        writer.addDelta(twoID, oneID, Delta.compute(one, two));
+        // a delta against a delta is resolved through the chain
+        writer.addDelta(threeID, twoID, Delta.compute(two, three));
+        PackFile pack = new PackFile(writer.finish());
+        try {
+            assertEquals(3, pack.size());
+            assertArrayEquals(one, pack.read(oneID));
+            assertArrayEquals(two, pack.read(twoID));
+            assertArrayEquals(three, pack.read(threeID));
+            assertFalse(pack.contains(Utils.sha1("missing")));
+            assertNull(pack.read(Utils.sha1("missing")));
+        } finally {
+            pack.close();
+        }
+    }
+
+    @Test
+    public void journalPutsBackWhatACrashLost() throws IOException {
+        File dir = tempDir();
+        File ref = Utils.join(dir, "refs", "master");
+        File object = Utils.join(dir, "trees", "object");
+        object.getParentFile().mkdirs();
+        Journal journal = new Journal(dir);
+        journal.write(object, bytes("tree"));
+        journal.update(ref, bytes("v1"));
+        journal.commit();
+        assertArrayEquals(bytes("v1"), Utils.readContents(ref));
+        // what a crash before the files reached the disk could leave
+        Utils.writeContents(ref, bytes("v0"));
+        object.delete();
+        new Journal(dir).recover();
+        assertArrayEquals(bytes("v1"), Utils.readContents(ref));
+        assertArrayEquals(bytes("tree"), Utils.readContents(object));
+    }
+
+    @Test
+    public void journalDropsTransactionsThatFailTheirChecksum() throws IOException {
+        File dir = tempDir();
+        File ref = Utils.join(dir, "refs", "master");
+        File file = Utils.join(dir, "journal");
+        Journal journal = new Journal(dir);
+        journal.update(ref, bytes("v1"));
+        journal.commit();
+        long first = file.length();
+        journal.update(ref, bytes("v2"));
+        journal.commit();
+        // damage the payload of the second transaction
+        byte[] contents = Utils.readContents(file);
+        contents[contents.length - 6] ^= 1;
+        Utils.writeContents(file, contents);
+        Utils.writeContents(ref, bytes("lost"));
+        new Journal(dir).recover();
+        assertArrayEquals(bytes("v1"), Utils.readContents(ref));
+        assertEquals(first, file.length());
+        // and a transaction cut short
+        journal.update(ref, bytes("v3"));
+        journal.commit();
+        Utils.writeContents(file, Arrays.copyOf(Utils.readContents(file),
+                (int) file.length() - 1));
+        Utils.writeContents(ref, bytes("lost"));
+        new Journal(dir).recover();
+        assertArrayEquals(bytes("v1"), Utils.readContents(ref));
+        assertEquals(first, file.length());
+    }
+
+    @Test
+    public void repackLeavesNoLooseBlobsToRecover() throws IOException {
+        File dir = tempDir();
+        Journal journal = new Journal(dir);
+        BlobStore blobs = new BlobStore(dir, journal);
+        blobs.write(Utils.sha1(bytes("one\n")), bytes("one\n"));
+        blobs.write(Utils.sha1(bytes("two\n")), bytes("two\n"));
+        journal.commit();
+        assertEquals(2, blobs.repack(new HashMap<>()));
+        // the next command recovers from the journal first
+        new Journal(dir).recover();
+        assertTrue(Utils.plainFilenamesIn(Utils.join(dir, "blobs")).isEmpty());
+        BlobStore reopened = new BlobStore(dir, new Journal(dir));
+        assertArrayEquals(bytes("two\n"), reopened.read(Utils.sha1(bytes("two\n"))));
+    }
+
+    @Test
+    public void repackListsTheNewPackOnce() throws IOException {
+        File dir = tempDir();
+        Journal journal = new Journal(dir);
+        new BlobStore(dir, journal).write(Utils.sha1(bytes("one\n")), bytes("one\n"));
+        journal.commit();
+        BlobStore blobs = new BlobStore(dir, journal);
+        assertEquals(1, blobs.repack(new HashMap<>()));
+        assertEquals(1, blobs.packs().size());
+    }
+
+    @Test
+    public void objectStoreSkipsTornWrites() throws IOException {
+        File dir = tempDir();
+        Journal journal = new Journal(dir);
+        ObjectStore store = new ObjectStore(dir, "trees", journal);
+        String id = Utils.sha1("tree");
+        store.put(id, "tree");
+        // what a crash in the middle of writing the next object leaves
+        File fanOut = Utils.join(dir, "trees", id.substring(0, 2));
+        Utils.writeContents(new File(fanOut, Journal.TEMP_PREFIX + "1.tmp"), bytes("torn"));
+        assertEquals(List.of(id), store.ids());
+        assertEquals("tree", store.get(id, String.class));
+    }
 
+    @Test
+    public void messageIndexFindsMessagesByTrigrams() throws IOException {
+        File dir = tempDir();
+        ObjectStore commits = new ObjectStore(dir, "commits", new Journal(dir));
+        MessageIndex messages = MessageIndex.load(dir, commits, id -> null);
+        // enough records for the index to be written over them
+        for (int i = 0; i < 1100; i += 1) {
+            messages.add(Utils.sha1("c" + i), i % 500 == 7 ? "Fix the Parser " + i : "commit " + i);
+        }
+        messages.save();
+        assertTrue(Utils.join(dir, "message-index").isFile());
+        MessageIndex reopened = MessageIndex.load(dir, commits, id -> null);
+        // and one left in the tail
+        reopened.add(Utils.sha1("tail"), "parser fixed");
+        assertEquals(List.of(Utils.sha1("c7"), Utils.sha1("c507"), Utils.sha1("c1007"),
+                Utils.sha1("tail")), reopened.grep("PARSER"));
+        assertEquals(List.of(Utils.sha1("c507")), reopened.grep("parser 507"));
+        assertEquals(List.of(Utils.sha1("c1007")), reopened.exact("Fix the Parser 1007"));
+        assertEquals(List.of(Utils.sha1("c1")), reopened.exact("commit 1"));
+        assertTrue(reopened.grep("no such words").isEmpty());
+        // too short for a trigram
+        assertEquals(4, reopened.grep("Fi").size());
+    }
+
+    @Test
+    public void messageIndexAddsCommitsACrashLeftOut() throws IOException {
+        File dir = tempDir();
+        ObjectStore commits = new ObjectStore(dir, "commits", new Journal(dir));
+        HashMap<String, CommitObject> stored = new HashMap<>();
+        for (String message : new String[] {"first", "second"}) {
+            CommitObject c = new CommitObject(null, message, Utils.sha1("tree"));
+            commits.put(c.getID(), c);
+            stored.put(c.getID(), c);
+        }
+        MessageIndex messages = MessageIndex.load(dir, commits, stored::get);
+        messages.save();
+        // a commit stored, but the process stopped before its record was appended
+        CommitObject lost = new CommitObject(null, "third", Utils.sha1("tree"));
+        commits.put(lost.getID(), lost);
+        stored.put(lost.getID(), lost);
+        MessageIndex reopened = MessageIndex.load(dir, commits, stored::get);
+        assertEquals(List.of(lost.getID()), reopened.exact("third"));
+        assertEquals(2, reopened.grep("IR").size());
+    }
+
+    @Test
+    public void oldRepositoriesAreRefusedClearly() throws IOException {
+        File old = new File(tempDir(), ".gitlet");
+        old.mkdirs();
+        Utils.writeContents(Utils.join(old, "commitTree"), bytes("serialized"));
+        assertTrue(CommitTree.isOldLayout(old));
+        File gitletDir = new File(tempDir(), ".gitlet");
+        CommitTree tree = CommitTree.init(gitletDir);
+        tree.save();
+        assertFalse(CommitTree.isOldLayout(gitletDir));
+        tree.addRemote("old", old.getPath());
+        assertEquals(CommitTree.OLD_LAYOUT, output(() -> tree.fetch("old", "master")).trim());
+    }
+
+    @Test
+    public void findListsACommitOnceWhenTheMessagesAreRebuilt() throws IOException {
+        File gitletDir = new File(tempDir(), ".gitlet");
+        CommitTree.init(gitletDir).save();
+        // a repository from before the message index, or after gc
+        Utils.join(gitletDir, "messages").delete();
+        CommitTree tree = CommitTree.open(gitletDir);
+        String initial = output(() -> tree.find("initial commit")).trim();
+        CommitTree reopened = CommitTree.open(gitletDir);
+        reopened.stageArea.setMergeParent(initial);
+        reopened.commit("merged");
+        assertEquals(1, output(() -> reopened.find("merged")).trim().split("\n").length);
+        assertEquals(1, output(() -> reopened.findGrep("merge")).trim().split("\n").length);
+    }
+
+}
@@ -1,46 +1,125 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
+import java.util.stream.IntStream;
 
 
 /* Assorted utilities.
    @author P. N. Hilfinger */
 class Utils {
 
+    /* Size of the blocks in which files are read when they are streamed. */
+    static final int BLOCK_SIZE = 1 << 16;
+
     /* SHA-1 HASH VALUES. */
 
+    /* A SHA-1 digest for each thread, reused from one hash to the next,
+       since looking one up costs more than hashing a short value. */
+    private static final ThreadLocal<MessageDigest> SHA1 =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+
+    /* A second SHA-1 digest for each thread, for a hash of a whole stream
+       taken while its parts are hashed with the first. */
+    private static final ThreadLocal<MessageDigest> OUTER_SHA1 =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+
+    /* A block to read files into for each thread. */
+    private static final ThreadLocal<byte[]> BLOCK =
+        ThreadLocal.withInitial(() -> new byte[BLOCK_SIZE]);
+
+    /* The hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /* Returns a new SHA-1 digest. */
+    private static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /* Returns this thread's SHA-1 digest, reset. It must be done with before
+       the next call to any sha1 method on the same thread. */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1.get();
+        md.reset();
+        return md;
+    }
+
+    /* Returns this thread's second SHA-1 digest, reset. No sha1 method uses
+       it, so it may stay in use while they run; it must be done with before
+       the next call to outerSha1Digest on the same thread. */
+    static MessageDigest outerSha1Digest() {
+        MessageDigest md = OUTER_SHA1.get();
+        md.reset();
+        return md;
+    }
+
     /* Returns the SHA-1 hash of the concatenation of VALS, which may be any
        mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        return hex(md.digest());
+    }
+
+    /* Returns the SHA-1 hash of the contents of FILE, which are read a block
+       at a time rather than whole. */
+    static String sha1(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = sha1Digest();
+            byte[] block = BLOCK.get();
+            for (int n = in.read(block); n >= 0; n = in.read(block)) {
+                md.update(block, 0, n);
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            return hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Returns DIGEST in hexadecimal. */
+    static String hex(byte[] digest) {
+        char[] result = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
         }
+        return new String(result);
+    }
+
+    /* Returns the SHA-1 hashes of the contents of FILES, in order, hashing
+       several files at once on all the available processors. */
+    static String[] sha1(File[] files) {
+        String[] result = new String[files.length];
+        IntStream.range(0, files.length).parallel()
+            .forEach(i -> result[i] = sha1(files[i]));
+        return result;
     }
 
     /* Returns the SHA-1 hash of the concatenation of the strings in VALS. */
@@ -102,6 +181,50 @@ class Utils {
         }
     }
 
+    /* Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+       Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(File file,
+                                                 Class<T> expectedClass) {
+        return deserialize(readContents(file), expectedClass);
+    }
+
+    /* Write OBJ to FILE. */
+    static void writeObject(File file, Serializable obj) {
+        writeContents(file, serialize(obj));
+    }
+
+    /* SERIALIZATION UTILITIES */
+
+    /* Returns a byte array containing the serialized contents of OBJ. */
+    static byte[] serialize(Serializable obj) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+            objectStream.writeObject(obj);
+            objectStream.close();
+            return stream.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("internal error serializing "
+                                               + obj.getClass().getName());
+        }
+    }
+
+    /* Returns the object of type T serialized in BYTES, casting it to
+       EXPECTEDCLASS. Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /* Return the concatentation of FIRST and OTHERS into a File designator,
@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* Watches the working directory for changes, so that a long-running process
+   can look at only the paths that changed instead of the whole tree. Every
+   directory that is not ignored is registered with a WatchService, and a
+   thread records the path of each file or directory created, modified or
+   deleted since the changes were last taken. When the ignore file changes,
+   its patterns are read again and the directories watched follow them.
+
+   Events arrive some time after the changes, so changes() first makes a
+   cookie file at the top of the working directory and waits for its event:
+   once it arrives, so have the events of all earlier changes. If events
+   were lost (an OVERFLOW event), the cookie does not arrive in time, or the
+   ignore patterns changed, changes() returns null, and the whole tree must
+   be scanned again. */
+class Watcher implements Runnable {
+
+    // start of the names of the cookie files
+    private static final String COOKIE = ".gitlet-cookie-";
+    // longest wait for a cookie, in milliseconds
+    private static final long COOKIE_WAIT = 2000;
+
+    // the working directory
+    private final Path root;
+    // its ignore patterns, read again when the ignore file changes; used
+    // only by the thread of the watcher once it runs
+    private WorkingTree workingTree;
+    // the watch service, and the directory each of its keys watches
+    private final WatchService service;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    // paths changed since the last call to changes(), relative to root
+    private final Set<String> dirty = new HashSet<>();
+    // true if the changes since the last call to changes() are not all known
+    private boolean rescan = true;
+    // number of cookies made, and the names of those seen
+    private long cookies;
+    private final Set<String> seen = new HashSet<>();
+
+    // Constructor: watches the working directory ROOT
+    private Watcher(File root) throws IOException {
+        this.root = root.getAbsoluteFile().toPath().normalize();
+        workingTree = new WorkingTree(root);
+        service = this.root.getFileSystem().newWatchService();
+        register(this.root);
+    }
+
+    // Starts watching the working directory ROOT on a thread of its own.
+    // Returns the watcher, or null if the file system cannot be watched.
+    static Watcher start(File root) {
+        try {
+            Watcher watcher = new Watcher(root);
+            Thread thread = new Thread(watcher, "gitlet-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            return watcher;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // stops watching
+    void stop() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            // nothing more to watch either way
+        }
+    }
+
+    // registers DIR and every directory under it that is not ignored
+    private void register(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+                    throws IOException {
+                String path = relative(d);
+                if (!path.isEmpty() && workingTree.isIgnored(path, true)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = d.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (Watcher.this) {
+                    dirs.put(key, d);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted while being walked; its event says so
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // returns PATH relative to the working directory, with '/' between names
+    private String relative(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir;
+                synchronized (this) {
+                    dir = dirs.get(key);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        synchronized (this) {
+                            rescan = true;
+                        }
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    record(changed, event.kind() == StandardWatchEventKinds.ENTRY_CREATE);
+                }
+                if (!key.reset()) {
+                    // the directory is gone; its deletion was recorded by its parent
+                    synchronized (this) {
+                        dirs.remove(key);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    // records that the path CHANGED was changed; CREATED if it was created
+    private void record(Path changed, boolean created) {
+        String path = relative(changed);
+        if (path.startsWith(COOKIE)) {
+            synchronized (this) {
+                seen.add(path);
+                notifyAll();
+            }
+            return;
+        }
+        if (created && Files.isDirectory(changed)) {
+            try {
+                register(changed);
+            } catch (IOException e) {
+                synchronized (this) {
+                    rescan = true;
+                }
+            }
+        }
+        if (path.equals(WorkingTree.IGNORE_FILE)) {
+            reloadIgnores();
+        }
+        synchronized (this) {
+            dirty.add(path);
+            if (path.equals(WorkingTree.IGNORE_FILE)) {
+                rescan = true;
+            }
+        }
+    }
+
+    // Reads the ignore patterns again and watches the directories they now
+    // leave in: those newly ignored are no longer watched, and the tree is
+    // walked again to register those no longer ignored.
+    private void reloadIgnores() {
+        workingTree = new WorkingTree(root.toFile());
+        synchronized (this) {
+            Iterator<Map.Entry<WatchKey, Path>> it = dirs.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<WatchKey, Path> entry = it.next();
+                if (isIgnored(relative(entry.getValue()))) {
+                    entry.getKey().cancel();
+                    it.remove();
+                }
+            }
+        }
+        try {
+            register(root);
+        } catch (IOException e) {
+            synchronized (this) {
+                rescan = true;
+            }
+        }
+    }
+
+    // returns true if the directory PATH, or one above it, is ignored
+    private boolean isIgnored(String path) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (workingTree.isIgnored(path.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return !path.isEmpty() && workingTree.isIgnored(path, true);
+    }
+
+    // Returns the paths of the files and directories changed since the last
+    // call, relative to the working directory, or null if the whole working
+    // directory must be scanned. A changed directory stands for everything
+    // under it.
+    synchronized Set<String> changes() {
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-" + cookies;
+        cookies += 1;
+        try {
+            Path file = root.resolve(cookie);
+            Files.createFile(file);
+            Files.delete(file);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COOKIE_WAIT);
+            while (!seen.remove(cookie)) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    rescan = true;
+                    break;
+                }
+                wait(left);
+            }
+        } catch (IOException | InterruptedException e) {
+            rescan = true;
+        }
+        Set<String> result = rescan ? null : new HashSet<>(dirty);
+        dirty.clear();
+        rescan = false;
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* The files of the working directory. Paths are relative to the working
+   directory and use '/' between directory names, as in the trees.
+
+   Files matching a pattern in the .gitletignore file at the top of the
+   working directory are left out, and so is .gitlet. Each line of
+   .gitletignore is a glob pattern; blank lines and lines starting with #
+   are skipped. A pattern ending in / matches only directories, and
+   everything under them. A pattern holding a / elsewhere is matched
+   against the whole path; any other pattern is matched against the name
+   of each file and directory, at any depth.
+
+   Directories are listed in parallel: each subdirectory is a fork/join
+   task of its own, so a deep tree keeps every processor busy. */
+class WorkingTree {
+
+    // name of the file of ignore patterns
+    static final String IGNORE_FILE = ".gitletignore";
+
+    // the working directory
+    private final Path root;
+    // the ignore patterns matched against names, and against whole paths
+    private final List<PathMatcher> names = new ArrayList<>();
+    private final List<PathMatcher> paths = new ArrayList<>();
+    // the same, for patterns that only match directories
+    private final List<PathMatcher> dirNames = new ArrayList<>();
+    private final List<PathMatcher> dirPaths = new ArrayList<>();
+    // true if there are any ignore patterns
+    private boolean ignoring;
+
+    // Constructor: the working directory ROOT, with its ignore patterns
+    WorkingTree(File root) {
+        this.root = root.getAbsoluteFile().toPath().normalize();
+        File ignore = new File(root, IGNORE_FILE);
+        if (ignore.isFile()) {
+            for (String line : new String(Utils.readContents(ignore)).split("\r?\n")) {
+                addPattern(line.trim());
+            }
+        }
+    }
+
+    // adds the ignore pattern LINE
+    private void addPattern(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        boolean dirOnly = line.endsWith("/");
+        String glob = dirOnly ? line.substring(0, line.length() - 1) : line;
+        boolean anchored = glob.contains("/");
+        if (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+        if (glob.isEmpty()) {
+            return;
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        ignoring = true;
+        if (dirOnly) {
+            (anchored ? dirPaths : dirNames).add(matcher);
+        } else {
+            (anchored ? paths : names).add(matcher);
+        }
+    }
+
+    // Returns the path of FILE relative to the working directory, "" for the
+    // working directory itself, or null if FILE is not inside it.
+    String relative(String file) {
+        Path path = root.resolve(file).normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        return toPath(root.relativize(path));
+    }
+
+    // returns PATH with '/' between its names
+    private static String toPath(Path path) {
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    // returns true if the file or directory at PATH, a path relative to the
+    // working directory, is ignored, not counting the directories above it
+    boolean isIgnored(String path, boolean directory) {
+        if (path.equals(".gitlet")) {
+            return true;
+        } else if (!ignoring) {
+            return false;
+        }
+        Path whole = Paths.get(path);
+        Path name = whole.getFileName();
+        if (matchesAny(names, name) || matchesAny(paths, whole)) {
+            return true;
+        }
+        return directory && (matchesAny(dirNames, name) || matchesAny(dirPaths, whole));
+    }
+
+    // returns true if one of MATCHERS matches PATH
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns, sorted, the paths of the files that are not ignored in the
+    // directory DIR, a path relative to the working directory ("" for the
+    // working directory itself), and in every directory under it.
+    TreeSet<String> files(String dir) {
+        TreeSet<String> result = new TreeSet<>();
+        result.addAll(ForkJoinPool.commonPool().invoke(new Scan(dir)));
+        return result;
+    }
+
+    /* Lists one directory, forking a task for each of its subdirectories. */
+    private final class Scan extends RecursiveTask<List<String>> {
+        // never serialized, but fixed as for every Serializable class
+        private static final long serialVersionUID = -3027021531494770001L;
+
+        // the directory, relative to the working directory
+        private final String dir;
+
+        Scan(String dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> result = new ArrayList<>();
+            List<Scan> subdirs = new ArrayList<>();
+            Path path = dir.isEmpty() ? root : root.resolve(dir);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    String name = dir.isEmpty() ? entry.getFileName().toString()
+                            : dir + "/" + entry.getFileName();
+                    BasicFileAttributes attrs = Files.readAttributes(entry,
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!isIgnored(name, true)) {
+                            Scan sub = new Scan(name);
+                            sub.fork();
+                            subdirs.add(sub);
+                        }
+                    } else if (attrs.isRegularFile() && !isIgnored(name, false)) {
+                        result.add(name);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            for (Scan sub : subdirs) {
+                result.addAll(sub.join());
+            }
+            return result;
+        }
+    }
+}